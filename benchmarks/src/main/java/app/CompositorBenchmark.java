@@ -0,0 +1,41 @@
+package app;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The Compositor passes that turn a fill mask into the displayed image. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CompositorBenchmark {
+
+    @Benchmark
+    public BufferedImage composeTransparent(SyntheticImage in) {
+        return Compositor.composeTransparent(in.image, in.backgroundMask, in.full);
+    }
+
+    @Benchmark
+    public BufferedImage composeTransparentSelection(SyntheticImage in) {
+        return Compositor.composeTransparent(in.image, in.backgroundMask, in.selection);
+    }
+
+    @Benchmark
+    public BufferedImage combineWithSelection(SyntheticImage in) {
+        return Compositor.combineWithSelection(in.image, in.processed, in.selection);
+    }
+
+    @Benchmark
+    public BufferedImage maskToDebugImage(SyntheticImage in) {
+        return Compositor.maskToDebugImage(in.backgroundMask);
+    }
+}
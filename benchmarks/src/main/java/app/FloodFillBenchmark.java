@@ -0,0 +1,59 @@
+package app;
+
+import java.awt.Color;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Background fill from the image corners and foreground fill from the subject's
+ * centre (the kernels behind simple crop and seed crop), sequential and tiled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FloodFillBenchmark {
+
+    @Benchmark
+    public BitMask fillBackground(SyntheticImage in) {
+        BitMask mask = new BitMask(in.full.width, in.full.height);
+        int[][] corners = FloodFill.cornerSeeds(in.full);
+        FloodFill.fillBackground(in.image, in.full, corners[0], corners[1], new Color(in.image.getRGB(0, 0)),
+                SyntheticImage.TOLERANCE, mask);
+        return mask;
+    }
+
+    @Benchmark
+    public BitMask fillForeground(SyntheticImage in) {
+        BitMask mask = new BitMask(in.full.width, in.full.height);
+        FloodFill.fillForeground(in.image, in.full, in.full.width / 2, in.full.height / 2,
+                SyntheticImage.TOLERANCE, mask);
+        return mask;
+    }
+
+    @Benchmark
+    public BitMask tiledFillBackground(SyntheticImage in) {
+        BitMask mask = new BitMask(in.full.width, in.full.height);
+        int[][] corners = FloodFill.cornerSeeds(in.full);
+        TiledFloodFill.fillBackground(in.image, in.full, corners[0], corners[1], new Color(in.image.getRGB(0, 0)),
+                SyntheticImage.TOLERANCE, mask, ForkJoinPool.commonPool());
+        return mask;
+    }
+
+    @Benchmark
+    public BitMask tiledFillForeground(SyntheticImage in) {
+        BitMask mask = new BitMask(in.full.width, in.full.height);
+        TiledFloodFill.fillForeground(in.image, in.full, in.full.width / 2, in.full.height / 2,
+                SyntheticImage.TOLERANCE, mask, ForkJoinPool.commonPool());
+        return mask;
+    }
+}
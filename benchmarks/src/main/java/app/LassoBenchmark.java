@@ -0,0 +1,67 @@
+package app;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The processDrawnShape pipeline: rasterizing a hand-drawn lasso (a wobbly
+ * closed path of {@code vertices} points around the subject), then the lasso
+ * crop over its bounding box.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LassoBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Lasso {
+        @Param({ "3000" })
+        public int vertices;
+
+        int[] xs, ys;
+        Rectangle bounds;
+
+        @Setup
+        public void setUp(SyntheticImage in) {
+            int w = in.full.width, h = in.full.height;
+            xs = new int[vertices];
+            ys = new int[vertices];
+            for (int i = 0; i < vertices; i++) {
+                double a = 2 * Math.PI * i / vertices;
+                double r = 0.4 + 0.02 * Math.sin(37 * a); // hand-drawn wobble
+                xs[i] = (int) (w / 2.0 + r * w * Math.cos(a));
+                ys[i] = (int) (h / 2.0 + r * h * Math.sin(a));
+            }
+            bounds = new Polygon(xs, ys, vertices).getBounds().intersection(in.full);
+        }
+    }
+
+    @Benchmark
+    public BitMask rasterize(SyntheticImage in, Lasso lasso) {
+        return PolygonRasterizer.fill(lasso.xs, lasso.ys, lasso.vertices, in.full.width, in.full.height, true);
+    }
+
+    @Benchmark
+    public BufferedImage lassoCrop(SyntheticImage in, Lasso lasso) {
+        BitMask shape = PolygonRasterizer.fill(lasso.xs, lasso.ys, lasso.vertices, in.full.width, in.full.height,
+                true);
+        // compose too: the crop itself only returns tiles composed on demand
+        return CropOperations.lassoCrop(in.image, shape, lasso.bounds, SyntheticImage.TOLERANCE).image();
+    }
+}
@@ -0,0 +1,82 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Shared benchmark input: a 4:3 TYPE_INT_ARGB image of the given size with a
+ * filled ellipse (the "subject") on a background of the given kind, plus the
+ * masks and regions the kernels take.
+ *
+ * uniform: one flat colour. noisy: flat colour with +-12 per-channel noise, so
+ * fills follow ragged edges. gradient: a vertical ramp, so fills from one
+ * corner stop part-way at low tolerances.
+ */
+@State(Scope.Benchmark)
+public class SyntheticImage {
+
+    @Param({ "1", "12", "48", "200" })
+    public int megapixels;
+
+    @Param({ "uniform", "noisy", "gradient" })
+    public String background;
+
+    static final int SUBJECT = 0xFFC03020;
+    static final int TOLERANCE = 60;
+
+    BufferedImage image;
+    Rectangle full;
+    Rectangle selection; // centred, half the width and height
+    BitMask backgroundMask; // the ellipse's complement
+    BufferedImage processed; // image composed with backgroundMask
+
+    @Setup
+    public void setUp() {
+        int w = (int) Math.sqrt(megapixels * 1_000_000.0 * 4 / 3);
+        int h = (int) (megapixels * 1_000_000L / w);
+        image = create(w, h, background);
+        full = new Rectangle(0, 0, w, h);
+        selection = new Rectangle(w / 4, h / 4, w / 2, h / 2);
+        backgroundMask = new BitMask(w, h);
+        FloodFill.fillBackground(image, full, new int[] { 0 }, new int[] { 0 },
+                new java.awt.Color(image.getRGB(0, 0)), TOLERANCE, backgroundMask);
+        processed = Compositor.composeTransparent(image, backgroundMask, full);
+    }
+
+    static BufferedImage create(int w, int h, String background) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] px = Rasters.argbPixels(img);
+        Random rnd = new Random(1);
+        double cx = w / 2.0, cy = h / 2.0, rx = w / 3.0, ry = h / 3.0;
+        for (int y = 0, i = 0; y < h; y++) {
+            int base = switch (background) {
+                case "uniform", "noisy" -> 0xFFE0E0E0;
+                case "gradient" -> {
+                    int g = 96 + 128 * y / h;
+                    yield 0xFF000000 | g << 16 | g << 8 | g;
+                }
+                default -> throw new IllegalArgumentException("Unknown background: " + background);
+            };
+            double dy = (y - cy) / ry;
+            for (int x = 0; x < w; x++, i++) {
+                double dx = (x - cx) / rx;
+                if (dx * dx + dy * dy <= 1) {
+                    px[i] = SUBJECT;
+                } else if (background.equals("noisy")) {
+                    int n = rnd.nextInt(25) - 12;
+                    int c = (base & 0xFF) + n;
+                    px[i] = 0xFF000000 | c << 16 | c << 8 | c;
+                } else {
+                    px[i] = base;
+                }
+            }
+        }
+        return img;
+    }
+}
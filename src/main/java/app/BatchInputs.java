@@ -0,0 +1,178 @@
+package app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Expands the batch tool's input arguments (files, directories, globs, @lists)
+ * into a duplicate-free list of source images, each with its output path.
+ *
+ * No two inputs share an output, and no output replaces an input: when an
+ * input would be written where an earlier one is (a/x.jpg and b/x.jpg from two
+ * directories) or over another source (y.jpg to y.png next to y.png), it keeps
+ * its source extension (y.jpg.png), and if that is taken too it is rejected.
+ * So is an input whose output would be its own source file. Rejected inputs are
+ * reported as failures.
+ */
+final class BatchInputs {
+
+    /** One image to process: where it is read from and written to, unless rejected says why not. */
+    record Input(Path source, Path output, String rejected) {
+        Input(Path source, Path output) {
+            this(source, output, null);
+        }
+    }
+
+    private static final Set<String> IMAGE_SUFFIXES = Arrays.stream(ImageIO.getReaderFileSuffixes())
+            .map(s -> s.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+
+    private final BatchOptions options;
+    private record Found(Path source, Path relative) { // relative: where below the out dir
+    }
+
+    private final Map<Path, Found> found = new LinkedHashMap<>(); // keyed by absolute source
+    private final Map<String, Path> taken = new HashMap<>(); // fileKey -> source read or written there
+
+    private BatchInputs(BatchOptions options) {
+        this.options = options;
+    }
+
+    static List<Input> expand(BatchOptions options) throws IOException {
+        BatchInputs expansion = new BatchInputs(options);
+        for (String spec : options.inputs())
+            expansion.add(spec, true);
+        return expansion.assignOutputs();
+    }
+
+    private void add(String spec, boolean allowList) throws IOException {
+        if (allowList && spec.startsWith("@")) {
+            for (String line : Files.readAllLines(Path.of(spec.substring(1)))) {
+                line = line.strip();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    add(line, false);
+            }
+            return;
+        }
+        if (isGlob(spec)) {
+            addGlob(spec);
+            return;
+        }
+        Path path = Path.of(spec);
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path, options.recursive() ? Integer.MAX_VALUE : 1)) {
+                for (Path f : (Iterable<Path>) files.sorted()::iterator) {
+                    if (Files.isRegularFile(f) && isImage(f))
+                        put(f, path.relativize(f));
+                }
+            }
+        } else {
+            // missing files are kept so they are reported as failures
+            put(path, path.getFileName());
+        }
+    }
+
+    // Glob: walk the longest leading directory without wildcards and match the rest.
+    private void addGlob(String spec) throws IOException {
+        String normalized = spec.replace('\\', '/');
+        int cut = 0;
+        for (int i = 0; i < normalized.length() && !isGlobChar(normalized.charAt(i)); i++) {
+            if (normalized.charAt(i) == '/')
+                cut = i + 1;
+        }
+        Path base = Path.of(cut == 0 ? "." : normalized.substring(0, cut));
+        String pattern = normalized.substring(cut);
+        if (pattern.indexOf('{') < 0)
+            pattern = pattern.replace("**/", "{**/,}"); // "**/" also matches no directory at all
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + pattern);
+        if (!Files.isDirectory(base))
+            return;
+        try (Stream<Path> files = Files.walk(base)) {
+            for (Path f : (Iterable<Path>) files.sorted()::iterator) {
+                Path rel = base.relativize(f);
+                if (Files.isRegularFile(f) && matcher.matches(rel))
+                    put(f, rel);
+            }
+        }
+    }
+
+    private void put(Path source, Path relative) {
+        found.putIfAbsent(source.toAbsolutePath().normalize(), new Found(source, relative));
+    }
+
+    // Once every source is known, so that no output lands on one.
+    private List<Input> assignOutputs() {
+        for (Found f : found.values())
+            taken.putIfAbsent(fileKey(f.source()), f.source());
+        List<Input> inputs = new ArrayList<>(found.size());
+        for (Found f : found.values()) {
+            Path source = f.source(), relative = f.relative();
+            String name = relative.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            Path output = output(relative, (dot > 0 ? name.substring(0, dot) : name) + "." + options.format());
+            Path other = taken.get(fileKey(output));
+            if (other != null && !isSameFile(other, source) && dot > 0) {
+                output = output(relative, name + "." + options.format());
+                other = taken.get(fileKey(output));
+            }
+            String rejected = null;
+            if (isSameFile(output, source))
+                rejected = "Output " + output + " would replace the source";
+            else if (other != null)
+                rejected = "Output " + output + " is already taken by " + other;
+            else
+                taken.put(fileKey(output), source);
+            inputs.add(new Input(source, output, rejected));
+        }
+        return inputs;
+    }
+
+    private Path output(Path relative, String outName) {
+        Path parent = relative.getParent();
+        return options.outDir().resolve(parent == null ? Path.of(outName) : parent.resolve(outName));
+    }
+
+    // Absolute, normalized and case-folded, as x.png and X.png are one file on
+    // Windows and macOS.
+    private static String fileKey(Path p) {
+        return p.toAbsolutePath().normalize().toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isSameFile(Path a, Path b) {
+        if (a.toAbsolutePath().normalize().equals(b.toAbsolutePath().normalize()))
+            return true;
+        try {
+            return Files.exists(a) && Files.exists(b) && Files.isSameFile(a, b);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isImage(Path f) {
+        String name = f.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && IMAGE_SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean isGlob(String spec) {
+        return spec.chars().anyMatch(c -> isGlobChar((char) c));
+    }
+
+    private static boolean isGlobChar(char c) {
+        return c == '*' || c == '?' || c == '[' || c == '{';
+    }
+}
@@ -0,0 +1,146 @@
+package app;
+
+import java.awt.Rectangle;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/** Command line of the SimpleBackgroundRemover batch tool. */
+record BatchOptions(List<String> inputs, int tolerance, String format, int decodeThreads, int processThreads,
+        int encodeThreads, int queueCapacity, Path outDir, Path summary, long memoryBudgetBytes, boolean recursive,
+        boolean virtualIo, int ioConcurrency, int pngLevel, boolean clearTransparent, Rectangle region) {
+
+    static final String USAGE = """
+            Usage: SimpleBackgroundRemover [options] <input>...
+                   SimpleBackgroundRemover <input-image> <output-image>
+
+            Inputs are image files, directories, glob patterns (e.g. 'shots/**/*.jpg')
+            or @file lists (one input per line, # for comments). Two image files and no
+            options are the second form, which writes the first to the second as PNG;
+            give any option (e.g. -o) to process both as inputs instead.
+
+            Options:
+              -t, --tolerance N   colour tolerance, 0..765 (default 60)
+              -f, --format FMT    output format with alpha, e.g. png or tiff (default png)
+              -z, --png-level N   PNG compression, 0 (fastest) .. 9 (smallest) (default 6)
+              -c, --clear-transparent
+                                  store removed background as transparent black rather
+                                  than its original colour; much smaller files
+              -j, --threads N     threads per decode and encode stage (default: cores);
+                                  the process stage gets half as many
+                  --decode-threads N, --process-threads N, --encode-threads N
+                                  size one pipeline stage explicitly
+              -q, --queue N       images buffered between stages (default: threads)
+              -o, --out DIR       output directory (default: out); directory inputs keep
+                                  their relative layout below it
+              -s, --summary FILE  per-file CSV report (default: <out>/summary.csv)
+              -m, --memory MB     budget for decoded images in flight (default: 3/4 of heap)
+              -r, --recursive     descend into subdirectories of directory inputs
+                  --region X,Y,W,H
+                                  decode and process only this rectangle of each image
+                                  (clipped to it); the output has the region's size
+                  --io MODE       platform: stage threads read and write files (default);
+                                  virtual: a virtual thread per file does the file I/O,
+                                  for slow or network storage
+                  --io-concurrency N
+                                  files read (and written) at once with --io virtual
+                                  (default 64)
+            """;
+
+    static BatchOptions parse(String[] args) {
+        List<String> inputs = new ArrayList<>();
+        int tolerance = 60;
+        String format = "png";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int decodeThreads = 0, processThreads = 0, encodeThreads = 0, queue = 0; // 0: derive from threads
+        Path outDir = Path.of("out");
+        Path summary = null;
+        long memory = Runtime.getRuntime().maxMemory() / 4 * 3;
+        boolean recursive = false;
+        boolean virtualIo = false;
+        int ioConcurrency = 64;
+        int pngLevel = PngEncoder.DEFAULT_LEVEL;
+        boolean clearTransparent = false;
+        Rectangle region = null; // whole image
+
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "-t", "--tolerance" -> tolerance = intValue(a, value(args, ++i, a), 0, 765);
+                case "-f", "--format" -> format = value(args, ++i, a).toLowerCase(Locale.ROOT);
+                case "-z", "--png-level" -> pngLevel = intValue(a, value(args, ++i, a), 0, 9);
+                case "-c", "--clear-transparent" -> clearTransparent = true;
+                case "-j", "--threads" -> threads = intValue(a, value(args, ++i, a), 1, 4096);
+                case "--decode-threads" -> decodeThreads = intValue(a, value(args, ++i, a), 1, 4096);
+                case "--process-threads" -> processThreads = intValue(a, value(args, ++i, a), 1, 4096);
+                case "--encode-threads" -> encodeThreads = intValue(a, value(args, ++i, a), 1, 4096);
+                case "-q", "--queue" -> queue = intValue(a, value(args, ++i, a), 1, 4096);
+                case "-o", "--out" -> outDir = Path.of(value(args, ++i, a));
+                case "-s", "--summary" -> summary = Path.of(value(args, ++i, a));
+                case "-m", "--memory" -> memory = intValue(a, value(args, ++i, a), 1, Integer.MAX_VALUE) * (1L << 20);
+                case "-r", "--recursive" -> recursive = true;
+                case "--io" -> virtualIo = switch (value(args, ++i, a)) {
+                    case "platform" -> false;
+                    case "virtual" -> true;
+                    default -> throw new IllegalArgumentException("--io must be platform or virtual: " + args[i]);
+                };
+                case "--region" -> region = rectangle(a, value(args, ++i, a));
+                case "--io-concurrency" -> ioConcurrency = intValue(a, value(args, ++i, a), 1, 65536);
+                default -> {
+                    if (a.startsWith("-") && a.length() > 1)
+                        throw new IllegalArgumentException("Unknown option: " + a);
+                    inputs.add(a);
+                }
+            }
+        }
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("No inputs given");
+        checkFormat(format);
+        return new BatchOptions(List.copyOf(inputs), tolerance, format,
+                decodeThreads > 0 ? decodeThreads : threads,
+                processThreads > 0 ? processThreads : Math.max(1, threads / 2),
+                encodeThreads > 0 ? encodeThreads : threads,
+                queue > 0 ? queue : threads, outDir,
+                summary != null ? summary : outDir.resolve("summary.csv"), memory, recursive,
+                virtualIo, ioConcurrency, pngLevel, clearTransparent, region);
+    }
+
+    /** Rejects formats ImageIO cannot write or that would drop the transparency. */
+    static void checkFormat(String format) {
+        if (format.equals("jpg") || format.equals("jpeg"))
+            throw new IllegalArgumentException("Format " + format + " has no alpha channel");
+        if (!ImageIO.getImageWritersByFormatName(format).hasNext())
+            throw new IllegalArgumentException("No image writer for format " + format);
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + option);
+        return args[i];
+    }
+
+    private static Rectangle rectangle(String option, String s) {
+        String[] parts = s.split(",");
+        if (parts.length != 4)
+            throw new IllegalArgumentException(option + " needs X,Y,W,H: " + s);
+        return new Rectangle(intValue(option, parts[0].strip(), 0, Integer.MAX_VALUE),
+                intValue(option, parts[1].strip(), 0, Integer.MAX_VALUE),
+                intValue(option, parts[2].strip(), 1, Integer.MAX_VALUE),
+                intValue(option, parts[3].strip(), 1, Integer.MAX_VALUE));
+    }
+
+    private static int intValue(String option, String s, int min, int max) {
+        int v;
+        try {
+            v = Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + option + ": " + s);
+        }
+        if (v < min || v > max)
+            throw new IllegalArgumentException(option + " must be in " + min + ".." + max + ": " + v);
+        return v;
+    }
+}
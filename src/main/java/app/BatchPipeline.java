@@ -0,0 +1,419 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * The batch tool's work as a three-stage pipeline: decode, process (the simple
+ * crop) and encode each run on their own pool of threads, connected by bounded
+ * queues. Decoding and encoding usually dominate, so separate pools keep every
+ * core busy instead of each thread alternating between I/O, codec and fill.
+ *
+ * Backpressure: a stage blocks when the queue in front of the next stage is
+ * full, and a decoder must reserve the image's decoded size from the memory
+ * budget (released once the file is written) before it reads any pixels. So at
+ * most (queues + threads) images are in flight and their total size stays
+ * within the budget. Once a second, a status line shows throughput, the depth
+ * of each queue and how many threads of each stage are busy.
+ *
+ * With virtual I/O (for slow or network storage) file access leaves the stage
+ * threads altogether: every file is read into memory by its own virtual thread,
+ * up to ioConcurrency at a time, and the decoders work on those bytes; encoders
+ * encode into memory and hand the bytes to a virtual thread to write. Waiting on
+ * the disk then costs no platform thread, while decoding, the fill and encoding
+ * stay on the fixed-size stage pools, so the CPUs are never oversubscribed.
+ * Fetched bytes are bounded by (ioConcurrency + queue) files; they are not
+ * counted against the memory budget, which covers decoded pixels.
+ */
+final class BatchPipeline {
+
+    private static final int BYTES_PER_PIXEL = 12; // decoded + ARGB copy + output, 4 bytes each
+
+    // An image between stages; permits are released when it leaves the pipeline.
+    private record Work(BatchInputs.Input input, int permits, BufferedImage image, int width, int height,
+            long decodeNanos, long processNanos, long readNanos) {
+    }
+
+    private static final Work END = new Work(null, 0, null, 0, 0, 0, 0, 0); // one per downstream thread
+
+    // A file read into memory by a virtual thread, or the error reading it.
+    private record Fetched(BatchInputs.Input input, byte[] bytes, long readNanos, Exception error) {
+    }
+
+    private static final Fetched END_FETCH = new Fetched(null, null, 0, null);
+
+    private final BatchOptions options;
+    private final BatchSummary summary;
+    private final PrintStream log;
+    private final Semaphore memory; // permits are MB of the budget
+    private final int budgetMB;
+    private final BlockingQueue<Work> toProcess, toEncode;
+    private final ConcurrentLinkedQueue<BatchInputs.Input> toDecode = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger decodeBusy = new AtomicInteger(), processBusy = new AtomicInteger(),
+            encodeBusy = new AtomicInteger(), done = new AtomicInteger();
+    private int total;
+
+    // virtual I/O mode only
+    private final BlockingQueue<Fetched> fetched;
+    private final Semaphore readSlots, writeSlots; // separate, so writes never wait on blocked reads
+    private ExecutorService io;
+
+    BatchPipeline(BatchOptions options, BatchSummary summary, PrintStream log) {
+        this.options = options;
+        this.summary = summary;
+        this.log = log;
+        this.budgetMB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, options.memoryBudgetBytes() >> 20));
+        this.memory = new Semaphore(budgetMB);
+        this.toProcess = new ArrayBlockingQueue<>(options.queueCapacity());
+        this.toEncode = new ArrayBlockingQueue<>(options.queueCapacity());
+        this.fetched = options.virtualIo() ? new ArrayBlockingQueue<>(options.queueCapacity()) : null;
+        this.readSlots = new Semaphore(options.ioConcurrency());
+        this.writeSlots = new Semaphore(options.ioConcurrency());
+    }
+
+    /** Processes all inputs and returns once every result is in the summary. */
+    void run(List<BatchInputs.Input> inputs) throws InterruptedException {
+        total = inputs.size();
+        List<BatchInputs.Input> accepted = new ArrayList<>(inputs.size());
+        for (BatchInputs.Input in : inputs) {
+            if (in.rejected() != null)
+                fail(in, 0, new IOException(in.rejected()));
+            else
+                accepted.add(in);
+        }
+        toDecode.addAll(accepted);
+        int decoders = options.decodeThreads(), workers = options.processThreads(), encoders = options.encodeThreads();
+        CountDownLatch encoded = new CountDownLatch(1);
+
+        ScheduledExecutorService status = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "batch-status");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        status.scheduleAtFixedRate(() -> printStatus(start), 1, 1, TimeUnit.SECONDS);
+        try {
+            if (options.virtualIo()) {
+                io = Executors.newVirtualThreadPerTaskExecutor();
+                Thread.ofVirtual().name("batch-fetch").start(() -> fetchAll(accepted, decoders));
+            }
+            // each stage hands one END per downstream thread on once all its own threads are done
+            startStage("decode", decoders, this::decodeLoop, () -> endOf(toProcess, workers));
+            startStage("process", workers, this::processLoop, () -> endOf(toEncode, encoders));
+            startStage("encode", encoders, this::encodeLoop, () -> {
+                if (io != null)
+                    io.close(); // waits for the last writes
+                encoded.countDown();
+            });
+            encoded.await();
+        } finally {
+            status.shutdownNow();
+        }
+        printStatus(start);
+    }
+
+    private void startStage(String name, int threads, InterruptibleLoop loop, Runnable onStageDone) {
+        AtomicInteger running = new AtomicInteger(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    loop.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (running.decrementAndGet() == 0)
+                        onStageDone.run();
+                }
+            }, "batch-" + name + "-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private interface InterruptibleLoop {
+        void run() throws InterruptedException;
+    }
+
+    private static void endOf(BlockingQueue<Work> queue, int consumers) {
+        try {
+            for (int i = 0; i < consumers; i++)
+                queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Virtual I/O: one virtual thread per file reads it whole, readSlots at a time.
+    private void fetchAll(List<BatchInputs.Input> inputs, int decoders) {
+        CountDownLatch fetchedAll = new CountDownLatch(inputs.size());
+        try {
+            for (BatchInputs.Input in : inputs) {
+                toDecode.poll(); // keeps the "waiting" count in the status line current
+                readSlots.acquire();
+                io.submit(() -> {
+                    try {
+                        Fetched f;
+                        long t0 = System.nanoTime();
+                        try {
+                            f = new Fetched(in, Files.readAllBytes(in.source()), System.nanoTime() - t0, null);
+                        } catch (FileSystemException e) {
+                            // message is just the path; match what the platform mode reports
+                            f = new Fetched(in, null, 0, new IOException("Cannot open file", e));
+                        } catch (Throwable e) {
+                            // e.g. OutOfMemoryError for a file over 2 GB: fail the file, not the batch
+                            f = new Fetched(in, null, 0, asException(e));
+                        }
+                        fetched.put(f);
+                    } finally {
+                        // the slot covers the bytes until a decoder can take them
+                        readSlots.release();
+                        fetchedAll.countDown();
+                    }
+                    return null;
+                });
+            }
+            fetchedAll.await();
+            for (int i = 0; i < decoders; i++)
+                fetched.put(END_FETCH);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void decodeLoop() throws InterruptedException {
+        while (true) {
+            BatchInputs.Input in;
+            Fetched f = null;
+            if (fetched != null) {
+                f = fetched.take();
+                if (f == END_FETCH)
+                    return;
+                in = f.input();
+            } else {
+                in = toDecode.poll();
+                if (in == null)
+                    return;
+            }
+            decodeBusy.incrementAndGet();
+            Work work;
+            try {
+                work = decode(in, f);
+            } finally {
+                decodeBusy.decrementAndGet();
+            }
+            if (work != null)
+                toProcess.put(work);
+        }
+    }
+
+    // Decoded image with its memory reserved, or null if the file failed. Reads
+    // the file itself unless virtual I/O already fetched it.
+    private Work decode(BatchInputs.Input in, Fetched f) throws InterruptedException {
+        int permits = 0;
+        try (ImageInputStream stream = f == null ? ImageIO.createImageInputStream(in.source().toFile())
+                : f.error() == null ? new MemoryCacheImageInputStream(new ByteArrayInputStream(f.bytes())) : null) {
+            if (f != null && f.error() != null)
+                throw f.error();
+            if (stream == null)
+                throw new IOException("Cannot open file");
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format");
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                Rectangle area = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                if (options.region() != null)
+                    area = area.intersection(options.region()); // only this much is decoded
+                long pixels = (long) Math.max(0, area.width) * Math.max(0, area.height);
+                permits = (int) Math.min(budgetMB, Math.max(1, (pixels * BYTES_PER_PIXEL) >> 20));
+                decodeBusy.decrementAndGet(); // waiting for memory is not work
+                try {
+                    memory.acquire(permits);
+                } finally {
+                    decodeBusy.incrementAndGet();
+                }
+                long t0 = System.nanoTime();
+                BufferedImage src = ImageFiles.read(reader, options.region(), 1);
+                return new Work(in, permits, src, src.getWidth(), src.getHeight(), System.nanoTime() - t0, 0,
+                        f == null ? 0 : f.readNanos());
+            } finally {
+                reader.dispose();
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            fail(in, permits, e);
+            return null;
+        }
+    }
+
+    private void processLoop() throws InterruptedException {
+        Work work;
+        while ((work = toProcess.take()) != END) {
+            processBusy.incrementAndGet();
+            Work processed;
+            try {
+                long t0 = System.nanoTime();
+                Cutout result = CropOperations.simpleBackgroundRemoval(work.image(), options.tolerance(),
+                        new Rectangle(0, 0, work.width(), work.height()));
+                processed = new Work(work.input(), work.permits(), result.image(), work.width(), work.height(),
+                        work.decodeNanos(), System.nanoTime() - t0, work.readNanos());
+            } catch (Exception e) {
+                fail(work.input(), work.permits(), e);
+                continue;
+            } finally {
+                processBusy.decrementAndGet();
+            }
+            toEncode.put(processed);
+        }
+    }
+
+    private void encodeLoop() throws InterruptedException {
+        Work work;
+        while ((work = toEncode.take()) != END) {
+            encodeBusy.incrementAndGet();
+            try {
+                long t0 = System.nanoTime();
+                if (io == null) {
+                    write(work.image(), work.input().output());
+                    long encode = System.nanoTime() - t0;
+                    memory.release(work.permits());
+                    finished(result(work, encode, 0));
+                } else {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+                    encode(work.image(), bytes);
+                    long encode = System.nanoTime() - t0;
+                    memory.release(work.permits()); // the pixels are done with; only the bytes remain
+                    writeAsync(work, bytes.toByteArray(), encode);
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                fail(work.input(), work.permits(), e);
+            } finally {
+                encodeBusy.decrementAndGet();
+            }
+        }
+    }
+
+    // Virtual I/O: write the encoded bytes on a virtual thread, writeSlots at a time.
+    private void writeAsync(Work work, byte[] bytes, long encodeNanos) throws InterruptedException {
+        writeSlots.acquire();
+        io.submit(() -> {
+            try {
+                long t0 = System.nanoTime();
+                Path out = work.input().output();
+                createParent(out);
+                Files.write(out, bytes);
+                finished(result(work, encodeNanos, System.nanoTime() - t0));
+            } catch (Throwable e) {
+                fail(work.input(), 0, asException(e));
+            } finally {
+                writeSlots.release();
+            }
+        });
+    }
+
+    private static BatchSummary.FileResult result(Work work, long encodeNanos, long writeNanos) {
+        return new BatchSummary.FileResult(work.input().source(), work.input().output(), work.width(),
+                work.height(), work.decodeNanos(), work.processNanos(), encodeNanos,
+                work.readNanos() + writeNanos, null);
+    }
+
+    private void write(BufferedImage img, Path out) throws IOException {
+        createParent(out);
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(out), 1 << 16)) {
+            encode(img, stream);
+        }
+    }
+
+    // PNG goes through the parallel encoder: its row blocks spread over the common
+    // pool's idle cores when there are fewer images left than encode threads.
+    private void encode(BufferedImage img, OutputStream out) throws IOException {
+        if (options.format().equals("png")) {
+            PngEncoder.write(img, out, options.pngLevel(), options.clearTransparent(), ForkJoinPool.commonPool());
+            return;
+        }
+        if (options.clearTransparent())
+            Compositor.clearTransparent(img); // the cut-out is this pipeline's own copy
+        if (!ImageIO.write(img, options.format(), out))
+            throw new IOException("No image writer for format " + options.format());
+    }
+
+    private static void createParent(Path out) throws IOException {
+        Path parent = out.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+    }
+
+    // Errors of a virtual I/O thread as a failure of its file; nothing else would report them.
+    private static Exception asException(Throwable t) {
+        if (t instanceof Exception e)
+            return e;
+        String name = t.getClass().getSimpleName();
+        return new IOException(t.getMessage() != null ? name + ": " + t.getMessage() : name, t);
+    }
+
+    private void fail(BatchInputs.Input in, int permits, Exception e) {
+        memory.release(permits);
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        BatchSummary.FileResult r = BatchSummary.FileResult.failed(in.source(), in.output(), message);
+        finished(r);
+        synchronized (log) {
+            log.println("FAILED " + in.source() + ": " + message);
+        }
+    }
+
+    private void finished(BatchSummary.FileResult r) {
+        summary.add(r);
+        done.incrementAndGet();
+    }
+
+    private void printStatus(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int n = done.get();
+        String ioStatus = fetched == null ? ""
+                : String.format(Locale.ROOT, " | io %d read, %d write slots busy, fetched q=%d",
+                        options.ioConcurrency() - readSlots.availablePermits(),
+                        options.ioConcurrency() - writeSlots.availablePermits(), fetched.size());
+        synchronized (log) {
+            log.printf(Locale.ROOT,
+                    "%d/%d done, %.1f img/s | decode %d/%d busy, %d waiting | process q=%d, %d/%d busy"
+                            + " | encode q=%d, %d/%d busy | %d MB reserved%s%n",
+                    n, total, n / Math.max(seconds, 1e-9), decodeBusy.get(), options.decodeThreads(),
+                    toDecode.size(), toProcess.size(), processBusy.get(), options.processThreads(),
+                    toEncode.size(), encodeBusy.get(), options.encodeThreads(),
+                    budgetMB - memory.availablePermits(), ioStatus);
+        }
+    }
+}
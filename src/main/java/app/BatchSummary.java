@@ -0,0 +1,99 @@
+package app;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/** Per-file results of a batch run, written as CSV and summarised on the console. */
+final class BatchSummary {
+
+    /**
+     * Outcome of one file; timings in nanoseconds, error null on success. ioNanos
+     * is the separate file read and write of virtual I/O mode, otherwise 0.
+     */
+    record FileResult(Path source, Path output, int width, int height, long decodeNanos, long processNanos,
+            long encodeNanos, long ioNanos, String error) {
+
+        boolean ok() {
+            return error == null;
+        }
+
+        long totalNanos() {
+            return decodeNanos + processNanos + encodeNanos + ioNanos;
+        }
+
+        static FileResult failed(Path source, Path output, String error) {
+            return new FileResult(source, output, 0, 0, 0, 0, 0, 0, error);
+        }
+    }
+
+    private final List<FileResult> results = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private long endNanos;
+
+    synchronized void add(FileResult r) {
+        results.add(r);
+    }
+
+    synchronized void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    synchronized int failures() {
+        return (int) results.stream().filter(r -> !r.ok()).count();
+    }
+
+    synchronized void writeCsv(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        try (Writer out = Files.newBufferedWriter(file)) {
+            out.write("source,output,status,width,height,decode_ms,process_ms,encode_ms,io_ms,total_ms,error\n");
+            for (FileResult r : results) {
+                out.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%s%n", csv(r.source()),
+                        csv(r.output()), r.ok() ? "ok" : "failed", r.width(), r.height(), ms(r.decodeNanos()),
+                        ms(r.processNanos()), ms(r.encodeNanos()), ms(r.ioNanos()), ms(r.totalNanos()),
+                        r.ok() ? "" : csv(r.error())));
+            }
+        }
+    }
+
+    synchronized void print(PrintStream out) {
+        List<FileResult> ok = results.stream().filter(FileResult::ok).toList();
+        double wallSeconds = (endNanos - startNanos) / 1e9;
+        double megapixels = ok.stream().mapToDouble(r -> (double) r.width() * r.height()).sum() / 1e6;
+        out.printf(Locale.ROOT, "%d files: %d ok, %d failed in %.1f s (%.1f files/s, %.1f MP/s)%n",
+                results.size(), ok.size(), results.size() - ok.size(), wallSeconds,
+                ok.size() / wallSeconds, megapixels / wallSeconds);
+        if (!ok.isEmpty()) {
+            long io = ok.stream().mapToLong(FileResult::ioNanos).sum() / ok.size();
+            out.printf(Locale.ROOT, "mean per file: decode %.1f ms, process %.1f ms, encode %.1f ms%s%n",
+                    ms(ok.stream().mapToLong(FileResult::decodeNanos).sum() / ok.size()),
+                    ms(ok.stream().mapToLong(FileResult::processNanos).sum() / ok.size()),
+                    ms(ok.stream().mapToLong(FileResult::encodeNanos).sum() / ok.size()),
+                    io > 0 ? String.format(Locale.ROOT, ", file i/o %.1f ms", ms(io)) : "");
+            out.println("slowest:");
+            ok.stream().sorted(Comparator.comparingLong(FileResult::totalNanos).reversed()).limit(5)
+                    .forEach(r -> out.printf(Locale.ROOT, "  %8.1f ms  %s%n", ms(r.totalNanos()), r.source()));
+        }
+        results.stream().filter(r -> !r.ok())
+                .forEach(r -> out.println("FAILED " + r.source() + ": " + r.error()));
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String csv(Object value) {
+        String s = String.valueOf(value);
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+            return s;
+        return '"' + s.replace("\"", "\"\"").replace('\n', ' ') + '"';
+    }
+}
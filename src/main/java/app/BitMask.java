@@ -0,0 +1,156 @@
+package app;
+
+import java.awt.Rectangle;
+
+/**
+ * Row-major bit mask (1 bit per pixel). Each row is padded to whole 64-bit words,
+ * so row y occupies words [y * wordsPerRow, (y + 1) * wordsPerRow) and a row-wise
+ * scan walks memory sequentially. Padding bits past the width are always zero.
+ *
+ * The set operations mutate this mask in place, like java.util.BitSet.
+ */
+final class BitMask {
+
+    private final int width, height;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    BitMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.words = new long[wordsPerRow * height];
+    }
+
+    private BitMask(BitMask other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.wordsPerRow = other.wordsPerRow;
+        this.words = other.words.clone();
+    }
+
+    private BitMask(int width, int height, long[] words) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.words = words;
+    }
+
+    /** The mask deflated, for keeping it around cheaply; see {@link #unpack}. */
+    byte[] pack() {
+        return Packing.packLongs(words);
+    }
+
+    static BitMask unpack(int width, int height, byte[] packed) {
+        return new BitMask(width, height, Packing.unpackLongs(packed, ((width + 63) >>> 6) * height));
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    BitMask copy() {
+        return new BitMask(this);
+    }
+
+    boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    void set(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
+    void clear(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+    }
+
+    /** Sets bits x0..x1 (inclusive) on row y. */
+    void setSpan(int x0, int x1, int y) {
+        int base = y * wordsPerRow;
+        int w0 = x0 >>> 6, w1 = x1 >>> 6;
+        long first = -1L << x0;
+        long last = -1L >>> (63 - (x1 & 63));
+        if (w0 == w1) {
+            words[base + w0] |= first & last;
+            return;
+        }
+        words[base + w0] |= first;
+        for (int i = w0 + 1; i < w1; i++)
+            words[base + i] = -1L;
+        words[base + w1] |= last;
+    }
+
+    /** this |= other */
+    BitMask union(BitMask other) {
+        checkSize(other);
+        for (int i = 0; i < words.length; i++)
+            words[i] |= other.words[i];
+        return this;
+    }
+
+    /** this &= other */
+    BitMask intersect(BitMask other) {
+        checkSize(other);
+        for (int i = 0; i < words.length; i++)
+            words[i] &= other.words[i];
+        return this;
+    }
+
+    /** Flips every pixel bit (padding stays zero). */
+    BitMask invert() {
+        long tail = lastWordMask();
+        for (int y = 0; y < height; y++) {
+            int base = y * wordsPerRow;
+            for (int i = 0; i < wordsPerRow; i++)
+                words[base + i] = ~words[base + i];
+            words[base + wordsPerRow - 1] &= tail;
+        }
+        return this;
+    }
+
+    /** Flips the pixel bits inside {@code r} only; {@code r} must lie within the mask. */
+    BitMask invert(Rectangle r) {
+        if (r.isEmpty())
+            return this;
+        int x0 = r.x, x1 = r.x + r.width - 1;
+        int w0 = x0 >>> 6, w1 = x1 >>> 6;
+        long first = -1L << x0;
+        long last = -1L >>> (63 - (x1 & 63));
+        for (int y = r.y; y < r.y + r.height; y++) {
+            int base = y * wordsPerRow;
+            if (w0 == w1) {
+                words[base + w0] ^= first & last;
+                continue;
+            }
+            words[base + w0] ^= first;
+            for (int i = w0 + 1; i < w1; i++)
+                words[base + i] = ~words[base + i];
+            words[base + w1] ^= last;
+        }
+        return this;
+    }
+
+    /** Number of set pixels. */
+    long popCount() {
+        long n = 0;
+        for (long word : words)
+            n += Long.bitCount(word);
+        return n;
+    }
+
+    private long lastWordMask() {
+        int rem = width & 63;
+        return rem == 0 ? -1L : (1L << rem) - 1;
+    }
+
+    private void checkSize(BitMask other) {
+        if (other.width != width || other.height != height)
+            throw new IllegalArgumentException("Mask size mismatch: " + other.width + "x" + other.height
+                    + " vs " + width + "x" + height);
+    }
+}
@@ -0,0 +1,30 @@
+package app;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation point for the pixel kernels. Jobs are cancelled by
+ * interrupting their thread (see OperationRunner); long loops call
+ * {@link #check()} every so often and unwind with a CancellationException.
+ * Kept free of JavaFX so the kernels can run headless.
+ */
+final class Cancellation {
+
+    private Cancellation() {
+    }
+
+    static void check() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException();
+    }
+
+    /**
+     * As {@link #check()}, for helper threads (e.g. fork-join workers) running on
+     * behalf of the job thread {@code owner}: cancelling the job interrupts only
+     * the owner.
+     */
+    static void check(Thread owner) {
+        if (owner.isInterrupted() || Thread.currentThread().isInterrupted())
+            throw new CancellationException();
+    }
+}
@@ -0,0 +1,394 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Connected-component labeling over a region of interest (4-connected).
+ *
+ * Two neighbouring pixels belong to the same component when the L1 distance
+ * between their colours is within the tolerance. The first pass gives every
+ * pixel the label of its left or upper neighbour (or a fresh provisional one)
+ * and records label equivalences in a union-find forest; the second pass
+ * resolves each provisional label to a final one numbered 1..count and
+ * accumulates the per-component statistics. Both passes are linear in the ROI
+ * area, however many components there are.
+ *
+ * With a ForkJoinPool the ROI is cut into horizontal strips that are labeled
+ * independently in parallel, each with its own union-find. The strip labels are
+ * then joined across the seams (the last row of one strip against the first row
+ * of the next) in a shared lock-free union-find, and the strips are relabeled
+ * and measured in parallel again. The result is identical to the sequential
+ * one, including the label numbering (scan order of each component's first
+ * pixel).
+ */
+final class ComponentLabeler {
+
+    private static final int MIN_STRIP_ROWS = 64;
+
+    /** Statistics of one component, in image coordinates. */
+    record Component(int label, int area, Rectangle bounds, int meanRgb, double centroidX, double centroidY) {
+    }
+
+    /** Result of a labeling: ROI-local labels (1..count) plus one Component per label. */
+    static final class Labels {
+        private final Rectangle roi;
+        private final int[] labels;
+        private final Component[] components;
+
+        Labels(Rectangle roi, int[] labels, Component[] components) {
+            this.roi = roi;
+            this.labels = labels;
+            this.components = components;
+        }
+
+        Rectangle roi() {
+            return roi;
+        }
+
+        int count() {
+            return components.length;
+        }
+
+        /** Component {@code label} (1..count). */
+        Component component(int label) {
+            return components[label - 1];
+        }
+
+        /** Label of image pixel (x, y), or 0 outside the ROI. */
+        int labelAt(int x, int y) {
+            if (!roi.contains(x, y))
+                return 0;
+            return labels[(y - roi.y) * roi.width + (x - roi.x)];
+        }
+
+        /** Image-sized mask of the pixels of component {@code label}. */
+        BitMask mask(int label, int imageWidth, int imageHeight) {
+            BitMask mask = new BitMask(imageWidth, imageHeight);
+            Rectangle b = component(label).bounds();
+            for (int y = b.y; y < b.y + b.height; y++) {
+                int row = (y - roi.y) * roi.width - roi.x;
+                int x = b.x, end = b.x + b.width;
+                while (x < end) {
+                    if (labels[row + x] != label) {
+                        x++;
+                        continue;
+                    }
+                    int start = x;
+                    while (x < end && labels[row + x] == label)
+                        x++;
+                    mask.setSpan(start, x - 1, y);
+                }
+            }
+            return mask;
+        }
+    }
+
+    private ComponentLabeler() {
+    }
+
+    /** Labels the components of {@code roi} (which must lie within the image) at tolerance {@code tol}. */
+    static Labels label(BufferedImage img, Rectangle roi, int tol) {
+        return label(img, roi, tol, null);
+    }
+
+    /**
+     * As {@link #label(BufferedImage, Rectangle, int)}, labeling strips of the ROI
+     * in parallel on {@code pool} (null: sequentially on the calling thread).
+     */
+    static Labels label(BufferedImage img, Rectangle roi, int tol, ForkJoinPool pool) {
+        int w = img.getWidth();
+        int rw = roi.width, rh = roi.height;
+        int[] px = Rasters.argbPixels(img);
+        int[] labels = new int[rw * rh];
+        Thread owner = Thread.currentThread();
+
+        int stripCount = pool == null ? 1
+                : Math.max(1, Math.min(pool.getParallelism() * 4, rh / MIN_STRIP_ROWS));
+        Strip[] strips = new Strip[stripCount];
+        for (int s = 0; s < stripCount; s++)
+            strips[s] = new Strip((int) ((long) rh * s / stripCount), (int) ((long) rh * (s + 1) / stripCount),
+                    s > 0 ? strips[s - 1] : null);
+
+        // pass 1: provisional labels per strip, compacted to 1..count in scan order
+        forEach(pool, strips, strip -> strip.label(px, w, roi, labels, tol, owner));
+
+        int total = 0;
+        for (Strip strip : strips) {
+            strip.base = total;
+            total += strip.count;
+        }
+
+        // join strips across their seams; ids are base + local label
+        int[] finalLabel = new int[total + 1];
+        int count;
+        if (stripCount == 1) {
+            for (int l = 1; l <= total; l++)
+                finalLabel[l] = l;
+            count = total;
+        } else {
+            ConcurrentUnionFind sets = new ConcurrentUnionFind(total);
+            forEach(pool, Arrays.copyOfRange(strips, 1, stripCount),
+                    strip -> strip.joinSeam(px, w, roi, labels, tol, sets, owner));
+            count = 0;
+            for (int g = 1; g <= total; g++) {
+                int root = sets.find(g); // roots are the smallest id, so root <= g
+                if (finalLabel[root] == 0)
+                    finalLabel[root] = ++count;
+                finalLabel[g] = finalLabel[root];
+            }
+        }
+
+        // pass 2: final labels and per-strip statistics, merged per component
+        forEach(pool, strips, strip -> strip.measure(px, w, roi, labels, finalLabel, owner));
+        Stats stats = new Stats(count);
+        for (Strip strip : strips)
+            stats.merge(strip.stats, finalLabel, strip.base);
+
+        Component[] components = new Component[count];
+        for (int l = 1; l <= count; l++)
+            components[l - 1] = stats.component(l, roi);
+        return new Labels(new Rectangle(roi), labels, components);
+    }
+
+    private static void forEach(ForkJoinPool pool, Strip[] strips, Consumer<Strip> work) {
+        if (pool == null || strips.length <= 1) {
+            for (Strip strip : strips)
+                work.accept(strip);
+            return;
+        }
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[strips.length];
+        for (int i = 0; i < strips.length; i++) {
+            Strip strip = strips[i];
+            tasks[i] = ForkJoinTask.adapt(() -> work.accept(strip));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    // Rows [y0, y1) of the ROI. Between passes, labels in the strip are local
+    // (1..count); pass 2 rewrites them to final labels.
+    private static final class Strip {
+        final int y0, y1;
+        final Strip above; // null for the first strip
+        int count, base;
+        Stats stats;
+
+        Strip(int y0, int y1, Strip above) {
+            this.y0 = y0;
+            this.y1 = y1;
+            this.above = above;
+        }
+
+        void label(int[] px, int w, Rectangle roi, int[] labels, int tol, Thread owner) {
+            int rw = roi.width;
+            UnionFind sets = new UnionFind();
+            for (int y = y0, i = y0 * rw; y < y1; y++) {
+                Cancellation.check(owner);
+                int row = (roi.y + y) * w + roi.x;
+                for (int x = 0; x < rw; x++, i++) {
+                    int rgb = px[row + x];
+                    boolean left = x > 0 && FloodFill.distance(rgb, px[row + x - 1]) <= tol;
+                    boolean up = y > y0 && FloodFill.distance(rgb, px[row + x - w]) <= tol;
+                    if (left) {
+                        labels[i] = labels[i - 1];
+                        if (up && labels[i - rw] != labels[i])
+                            sets.union(labels[i], labels[i - rw]);
+                    } else if (up) {
+                        labels[i] = labels[i - rw];
+                    } else {
+                        labels[i] = sets.add();
+                    }
+                }
+            }
+
+            int[] local = new int[sets.size() + 1];
+            for (int l = 1; l <= sets.size(); l++) {
+                int root = sets.find(l); // root <= l, see UnionFind
+                if (local[root] == 0)
+                    local[root] = ++count;
+                local[l] = local[root];
+            }
+            for (int i = y0 * rw, end = y1 * rw; i < end; i++)
+                labels[i] = local[labels[i]];
+        }
+
+        // Union this strip's first row with the previous strip's last row.
+        void joinSeam(int[] px, int w, Rectangle roi, int[] labels, int tol, ConcurrentUnionFind sets,
+                Thread owner) {
+            Cancellation.check(owner);
+            int rw = roi.width;
+            int aboveBase = above.base;
+            int row = (roi.y + y0) * w + roi.x;
+            int i = y0 * rw;
+            int lastA = 0, lastB = 0;
+            for (int x = 0; x < rw; x++, i++) {
+                if (FloodFill.distance(px[row + x], px[row + x - w]) > tol)
+                    continue;
+                int a = aboveBase + labels[i - rw], b = base + labels[i];
+                if (a == lastA && b == lastB)
+                    continue; // same pair as the previous column
+                sets.union(a, b);
+                lastA = a;
+                lastB = b;
+            }
+        }
+
+        void measure(int[] px, int w, Rectangle roi, int[] labels, int[] finalLabel, Thread owner) {
+            int rw = roi.width;
+            stats = new Stats(count);
+            for (int y = y0, i = y0 * rw; y < y1; y++) {
+                Cancellation.check(owner);
+                int row = (roi.y + y) * w + roi.x;
+                for (int x = 0; x < rw; x++, i++) {
+                    int l = labels[i];
+                    labels[i] = finalLabel[base + l];
+                    stats.add(l, x, y, px[row + x]);
+                }
+            }
+        }
+    }
+
+    // Per-label sums and bounds (ROI-local coordinates), index 0 unused.
+    private static final class Stats {
+        final long[] area, sumX, sumY, sumR, sumG, sumB;
+        final int[] minX, minY, maxX, maxY;
+
+        Stats(int count) {
+            area = new long[count + 1];
+            sumX = new long[count + 1];
+            sumY = new long[count + 1];
+            sumR = new long[count + 1];
+            sumG = new long[count + 1];
+            sumB = new long[count + 1];
+            minX = new int[count + 1];
+            minY = new int[count + 1];
+            maxX = new int[count + 1];
+            maxY = new int[count + 1];
+            Arrays.fill(minX, Integer.MAX_VALUE);
+            Arrays.fill(minY, Integer.MAX_VALUE);
+        }
+
+        void add(int l, int x, int y, int rgb) {
+            area[l]++;
+            sumX[l] += x;
+            sumY[l] += y;
+            sumR[l] += (rgb >> 16) & 0xFF;
+            sumG[l] += (rgb >> 8) & 0xFF;
+            sumB[l] += rgb & 0xFF;
+            if (x < minX[l])
+                minX[l] = x;
+            if (x > maxX[l])
+                maxX[l] = x;
+            if (y < minY[l])
+                minY[l] = y;
+            maxY[l] = y; // rows are visited in order
+        }
+
+        // Add a strip's statistics; its label l is final label finalLabel[base + l].
+        void merge(Stats s, int[] finalLabel, int base) {
+            for (int l = 1; l < s.area.length; l++) {
+                int f = finalLabel[base + l];
+                area[f] += s.area[l];
+                sumX[f] += s.sumX[l];
+                sumY[f] += s.sumY[l];
+                sumR[f] += s.sumR[l];
+                sumG[f] += s.sumG[l];
+                sumB[f] += s.sumB[l];
+                minX[f] = Math.min(minX[f], s.minX[l]);
+                minY[f] = Math.min(minY[f], s.minY[l]);
+                maxX[f] = Math.max(maxX[f], s.maxX[l]);
+                maxY[f] = Math.max(maxY[f], s.maxY[l]);
+            }
+        }
+
+        Component component(int l, Rectangle roi) {
+            long n = area[l];
+            int mean = (int) (sumR[l] / n) << 16 | (int) (sumG[l] / n) << 8 | (int) (sumB[l] / n);
+            Rectangle bounds = new Rectangle(roi.x + minX[l], roi.y + minY[l], maxX[l] - minX[l] + 1,
+                    maxY[l] - minY[l] + 1);
+            return new Component(l, (int) n, bounds, mean, roi.x + (double) sumX[l] / n,
+                    roi.y + (double) sumY[l] / n);
+        }
+    }
+
+    // Union-find over provisional labels 1..size, with path halving and union by index
+    // (the smaller label becomes the root, keeping roots in scan order).
+    private static final class UnionFind {
+        private int[] parent = new int[1024];
+        private int size;
+
+        int add() {
+            if (++size == parent.length)
+                parent = Arrays.copyOf(parent, parent.length * 2);
+            parent[size] = size;
+            return size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int find(int a) {
+            while (parent[a] != a) {
+                parent[a] = parent[parent[a]];
+                a = parent[a];
+            }
+            return a;
+        }
+
+        void union(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a < b)
+                parent[b] = a;
+            else if (b < a)
+                parent[a] = b;
+        }
+    }
+
+    // Lock-free union-find over ids 1..size for the seam joins. A root is linked
+    // below a smaller root with a CAS on its own slot, which fails if another
+    // thread linked it first; path halving only ever moves a pointer further up a
+    // chain of decreasing ids, so it is safe to race with.
+    private static final class ConcurrentUnionFind {
+        private final AtomicIntegerArray parent;
+
+        ConcurrentUnionFind(int size) {
+            parent = new AtomicIntegerArray(size + 1);
+            for (int i = 0; i <= size; i++)
+                parent.set(i, i);
+        }
+
+        int find(int a) {
+            int p;
+            while ((p = parent.get(a)) != a) {
+                int gp = parent.get(p);
+                if (gp != p)
+                    parent.compareAndSet(a, p, gp);
+                a = p;
+            }
+            return a;
+        }
+
+        void union(int a, int b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b)
+                    return;
+                if (a < b) {
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+                if (parent.compareAndSet(a, a, b))
+                    return; // a was still a root; otherwise retry from the new roots
+            }
+        }
+    }
+}
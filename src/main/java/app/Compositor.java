@@ -0,0 +1,155 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.ref.SoftReference;
+
+/**
+ * Compositing kernels that work directly on the DataBufferInt arrays of
+ * TYPE_INT_ARGB images instead of a getRGB/setRGB pair per pixel. Inputs of any
+ * other type are converted to packed ARGB once up front (see Rasters.argbPixels).
+ */
+final class Compositor {
+
+    private static final int BG_DEBUG = 0x80FF0000; // semi red = background
+    private static final int FG_DEBUG = 0x8000FF00; // semi green = foreground
+
+    private Compositor() {
+    }
+
+    /**
+     * Copies {@code src} with alpha 0 where {@code bgMask} is set and alpha 255
+     * elsewhere, but only inside {@code roi}; pixels outside it are copied from
+     * {@code src} unchanged, a row segment at a time. RGB is kept under transparent
+     * pixels. {@code roi} must lie within the image.
+     */
+    static BufferedImage composeTransparent(BufferedImage src, BitMask bgMask, Rectangle roi) {
+        int w = src.getWidth(), h = src.getHeight();
+        int[] in = Rasters.argbPixels(src);
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] o = data(out);
+        copyOutside(in, o, w, h, roi);
+        for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x, i = y * w + x; x < roi.x + roi.width; x++, i++) {
+                int rgb = in[i] & 0x00FFFFFF;
+                o[i] = bgMask.get(x, y) ? rgb : 0xFF000000 | rgb;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Tiled form of {@link #composeTransparent}: a new version of {@code base} in
+     * which the pixels inside {@code roi} get alpha 0 where {@code bgMask} is set
+     * and alpha 255 elsewhere. Only tiles overlapping the ROI are replaced, and
+     * they are composed when needed from a packed copy of the mask, so the version
+     * costs about as much as the deflated mask.
+     */
+    static TiledImage composeTransparent(TiledImage base, BitMask bgMask, Rectangle roi) {
+        PackedMask packed = new PackedMask(bgMask);
+        return base.withRegion(roi, (tile, bounds, area) -> {
+            BitMask mask = packed.get();
+            for (int y = area.y; y < area.y + area.height; y++) {
+                int i = (y - bounds.y) * bounds.width + (area.x - bounds.x);
+                for (int x = area.x; x < area.x + area.width; x++, i++) {
+                    int rgb = tile[i] & 0x00FFFFFF;
+                    tile[i] = mask.get(x, y) ? rgb : 0xFF000000 | rgb;
+                }
+            }
+        }, packed.bytes());
+    }
+
+    /**
+     * Pixels inside {@code sel} come from {@code processed}, the rest from
+     * {@code original}. Rows above and below the selection are copied as one block,
+     * rows crossing it as three row segments.
+     */
+    static BufferedImage combineWithSelection(BufferedImage original, BufferedImage processed, Rectangle sel) {
+        int w = original.getWidth(), h = original.getHeight();
+        int[] orig = Rasters.argbPixels(original);
+        int[] proc = Rasters.argbPixels(processed);
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] o = data(out);
+
+        Rectangle r = sel.intersection(new Rectangle(0, 0, w, h));
+        copyOutside(orig, o, w, h, r);
+        for (int y = r.y; y < r.y + r.height; y++) {
+            int start = y * w + r.x;
+            System.arraycopy(proc, start, o, start, r.width);
+        }
+        return out;
+    }
+
+    // Copy every pixel outside r (which lies within the image) from src to dst.
+    private static void copyOutside(int[] src, int[] dst, int w, int h, Rectangle r) {
+        if (r.isEmpty()) {
+            System.arraycopy(src, 0, dst, 0, w * h);
+            return;
+        }
+        int x0 = r.x, x1 = r.x + r.width, y0 = r.y, y1 = r.y + r.height;
+        System.arraycopy(src, 0, dst, 0, y0 * w);
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            System.arraycopy(src, row, dst, row, x0);
+            System.arraycopy(src, row + x1, dst, row + x1, w - x1);
+        }
+        System.arraycopy(src, y1 * w, dst, y1 * w, (h - y1) * w);
+    }
+
+    /**
+     * Sets every pixel of alpha 0 in a TYPE_INT_ARGB image to transparent black,
+     * in place, for output formats that compress the hidden colour otherwise.
+     */
+    static void clearTransparent(BufferedImage argb) {
+        int[] p = data(argb);
+        for (int i = 0; i < p.length; i++) {
+            if (p[i] >>> 24 == 0)
+                p[i] = 0;
+        }
+    }
+
+    /** Semi-transparent red/green overlay of a background mask. */
+    static BufferedImage maskToDebugImage(BitMask mask) {
+        int w = mask.width(), h = mask.height();
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] o = data(out);
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++)
+                o[i] = mask.get(x, y) ? BG_DEBUG : FG_DEBUG;
+        }
+        return out;
+    }
+
+    // Backing array of a TYPE_INT_ARGB image created by this class.
+    private static int[] data(BufferedImage argb) {
+        return ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+    }
+
+    // A mask kept deflated; the inflated form is cached while memory allows, so
+    // composing the tiles of one version unpacks it once.
+    private static final class PackedMask {
+        private final int width, height;
+        private final byte[] packed;
+        private SoftReference<BitMask> unpacked;
+
+        PackedMask(BitMask mask) {
+            this.width = mask.width();
+            this.height = mask.height();
+            this.packed = mask.pack();
+        }
+
+        synchronized BitMask get() {
+            BitMask mask = unpacked != null ? unpacked.get() : null;
+            if (mask == null) {
+                mask = BitMask.unpack(width, height, packed);
+                unpacked = new SoftReference<>(mask);
+            }
+            return mask;
+        }
+
+        long bytes() {
+            return packed.length;
+        }
+    }
+}
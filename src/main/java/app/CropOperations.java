@@ -0,0 +1,104 @@
+package app;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The crop operations of the editor as plain functions of an image, without any
+ * JavaFX state, so they can also run headless (batch tools, benchmarks). Each
+ * returns its background mask together with the result as a tiled version of
+ * the source (see Compositor.composeTransparent(TiledImage, ...)): only tiles
+ * overlapping the ROI differ, and they are composed when the result is shown.
+ */
+final class CropOperations {
+
+    // Fills over regions at least this large run tiled on the common fork-join pool
+    private static final long PARALLEL_FILL_PIXELS = 16_000_000L;
+
+    private CropOperations() {
+    }
+
+    // 1) Background removal by sampling the ROI corners and flood-filling similar
+    // colors as background. Pixels outside the ROI are left untouched.
+    static Cutout simpleBackgroundRemoval(BufferedImage src, int tolerance, Rectangle roi) {
+        int w = src.getWidth(), h = src.getHeight();
+        BitMask mask = new BitMask(w, h); // set = background
+
+        Color bg = sampleBackgroundColor(src, roi);
+        int[][] corners = FloodFill.cornerSeeds(roi);
+        if (parallelFill(roi))
+            TiledFloodFill.fillBackground(src, roi, corners[0], corners[1], bg, tolerance, mask, ForkJoinPool.commonPool());
+        else
+            FloodFill.fillBackground(src, roi, corners[0], corners[1], bg, tolerance, mask); // one pass for all corners
+
+        return new Cutout(Compositor.composeTransparent(TiledImage.wrap(src), mask, roi), mask);
+    }
+
+    // 2) Seed-based crop: user clicks inside the object to keep; flood-fill similar
+    // colors = foreground, staying inside the ROI.
+    static Cutout seedBasedCrop(BufferedImage src, int sx, int sy, int tol, Rectangle roi) {
+        int w = src.getWidth(), h = src.getHeight();
+        // seed outside the selection: fill the whole image, apply it to the selection only
+        Rectangle area = roi.contains(sx, sy) ? roi : new Rectangle(0, 0, w, h);
+        BitMask fg = new BitMask(w, h); // set = foreground
+        if (parallelFill(area))
+            TiledFloodFill.fillForeground(src, area, sx, sy, tol, fg, ForkJoinPool.commonPool());
+        else
+            FloodFill.fillForeground(src, area, sx, sy, tol, fg);
+
+        BitMask bgMask = fg.invert(area); // now set = background inside the filled area
+        return new Cutout(Compositor.composeTransparent(TiledImage.wrap(src), bgMask, roi), bgMask);
+    }
+
+    // 3) Lasso crop: every edge pixel inside the drawn shape seeds a foreground
+    // fill; the union of the regions is kept within the shape's bounds.
+    static Cutout lassoCrop(BufferedImage src, BitMask shapeMask, Rectangle bounds, int tol) {
+        int w = src.getWidth(), h = src.getHeight();
+        int[] px = Rasters.argbPixels(src);
+
+        // Find seed points inside the shape
+        IntList seeds = new IntList();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            Cancellation.check();
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                if (shapeMask.get(x, y) && isLocalColorDifference(px, w, h, x, y, 5)) {
+                    seeds.add(y * w + x);
+                }
+            }
+        }
+
+        // One shared fill over the lasso bounds: seeds inside an earlier region are skipped
+        BitMask fg = new BitMask(w, h);
+        FloodFill.fillForegroundSeeds(src, bounds, seeds, tol, fg);
+
+        BitMask bgMask = fg.invert(bounds); // set = background inside the lasso bounds
+        return new Cutout(Compositor.composeTransparent(TiledImage.wrap(src), bgMask, bounds), bgMask);
+    }
+
+    private static boolean parallelFill(Rectangle roi) {
+        return (long) roi.width * roi.height >= PARALLEL_FILL_PIXELS
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    static Color sampleBackgroundColor(BufferedImage img, Rectangle roi) {
+        int x0 = roi.x, y0 = roi.y, x1 = roi.x + roi.width - 1, y1 = roi.y + roi.height - 1;
+        int[] px = { img.getRGB(x0, y0), img.getRGB(x1, y0), img.getRGB(x0, y1), img.getRGB(x1, y1) };
+        long r = 0, g = 0, b = 0;
+        for (int p : px) {
+            r += (p >> 16) & 0xFF;
+            g += (p >> 8) & 0xFF;
+            b += p & 0xFF;
+        }
+        return new Color((int) (r / 4), (int) (g / 4), (int) (b / 4));
+    }
+
+    private static boolean isLocalColorDifference(int[] px, int w, int h, int x, int y, int step) {
+        int center = px[y * w + x];
+        return FloodFill.distance(center, px[Math.max(0, y - step) * w + x]) > 30
+                || FloodFill.distance(center, px[Math.min(h - 1, y + step) * w + x]) > 30
+                || FloodFill.distance(center, px[y * w + Math.max(0, x - step)]) > 30
+                || FloodFill.distance(center, px[y * w + Math.min(w - 1, x + step)]) > 30;
+    }
+}
@@ -0,0 +1,18 @@
+package app;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Result of a background operation: the new version of the image and the
+ * background mask it was composed from (set = background, may be null if there
+ * is none). Crops return their version as tiles over the source that are
+ * composed from the mask on demand, so nothing image-sized is allocated until
+ * {@link #image()} is called for display or saving.
+ */
+record Cutout(TiledImage version, BitMask mask) {
+
+    /** The version as one image; computed anew on every call. */
+    BufferedImage image() {
+        return version.toBufferedImage();
+    }
+}
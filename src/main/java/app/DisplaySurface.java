@@ -0,0 +1,94 @@
+package app;
+
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * The pixels the editor's ImageView shows, held in one int[] that a JavaFX
+ * PixelBuffer shares with the WritableImage on screen (premultiplied ARGB, the
+ * int format PixelBuffer accepts) instead of a fresh SwingFXUtils copy per update.
+ *
+ * Showing an image of the current size compares it with what is on screen,
+ * writes only the pixels that differ and invalidates just their bounding box
+ * through updateBuffer, so a local edit re-uploads a local texture region and
+ * nothing is allocated. A different size allocates a new buffer once.
+ * FX thread only.
+ */
+final class DisplaySurface {
+
+    private int width, height;
+    private int[] pixels; // premultiplied ARGB, row-major, backs buffer
+    private PixelBuffer<IntBuffer> buffer;
+    private WritableImage image;
+
+    /** Image to put into the ImageView; a new one only after a size change. */
+    Image image() {
+        return image;
+    }
+
+    /** Makes the surface show {@code img}. */
+    void show(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        int[] src = Rasters.argbPixels(img);
+        if (image == null || w != width || h != height) {
+            width = w;
+            height = h;
+            pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++)
+                pixels[i] = premultiply(src[i]);
+            buffer = new PixelBuffer<>(w, h, IntBuffer.wrap(pixels), PixelFormat.getIntArgbPreInstance());
+            image = new WritableImage(buffer);
+            return;
+        }
+
+        // bounding box of the changed pixels; the comparison only reads
+        int x0 = w, y0 = h, x1 = -1, y1 = -1;
+        for (int y = 0; y < h; y++) {
+            int row = y * w, first = -1, last = -1;
+            for (int x = 0; x < w; x++) {
+                if (pixels[row + x] != premultiply(src[row + x])) {
+                    if (first < 0)
+                        first = x;
+                    last = x;
+                }
+            }
+            if (first >= 0) {
+                x0 = Math.min(x0, first);
+                x1 = Math.max(x1, last);
+                y0 = Math.min(y0, y);
+                y1 = y;
+            }
+        }
+        if (x1 < 0)
+            return; // nothing changed
+
+        int dx0 = x0, dy0 = y0, dx1 = x1, dy1 = y1;
+        buffer.updateBuffer(b -> {
+            for (int y = dy0; y <= dy1; y++) {
+                for (int i = y * w + dx0, end = y * w + dx1; i <= end; i++)
+                    pixels[i] = premultiply(src[i]);
+            }
+            return new Rectangle2D(dx0, dy0, dx1 - dx0 + 1, dy1 - dy0 + 1);
+        });
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 0xff)
+            return argb;
+        if (a == 0)
+            return 0;
+        int r = ((argb >> 16) & 0xff) * a + 128, g = ((argb >> 8) & 0xff) * a + 128, b = (argb & 0xff) * a + 128;
+        // round(c * a / 255) without the division
+        r = (r + (r >> 8)) >> 8;
+        g = (g + (g >> 8)) >> 8;
+        b = (b + (b >> 8)) >> 8;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+}
@@ -0,0 +1,211 @@
+package app;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Span-based scanline flood fill (4-connected).
+ *
+ * A pixel joins the region when the L1 distance between its RGB and a reference
+ * colour is within the tolerance. Instead of queueing every neighbour, each popped
+ * seed is widened into a horizontal span and only one seed per run of matching
+ * pixels is pushed for the rows above and below. Pixels are read straight from the
+ * raster's int[] and pending seeds live on a primitive int stack, so a fill does
+ * not allocate per pixel.
+ *
+ * Every fill is confined to a region of interest (usually the active selection,
+ * otherwise the whole image); pixels outside it are never read or marked, so the
+ * cost follows the ROI area rather than the image area.
+ */
+final class FloodFill {
+
+    /** Receives the spans a tile-confined fill would continue into outside its tile. */
+    interface SpanSink {
+        void accept(int lx, int rx, int y);
+    }
+
+    private final int[] px;
+    private final int w;
+    private final int minX, minY, maxX, maxY; // area filled by this instance, inclusive
+    private final int roiMinX, roiMinY, roiMaxX, roiMaxY; // whole ROI, inclusive
+    private final int refR, refG, refB, tol;
+    private final BitMask mask;
+    private final SpanSink spill;
+    private final Thread owner;
+    private int[] stack = new int[256];
+    private int sp;
+
+    private FloodFill(int[] px, int w, Rectangle roi, int ref, int tol, BitMask mask) {
+        this(px, w, roi, roi, ref, tol, mask, null, Thread.currentThread());
+    }
+
+    /**
+     * Fill confined to {@code tile} within {@code roi}, for TiledFloodFill: spans
+     * that touch a tile edge facing the rest of the ROI are reported to
+     * {@code spill} as the adjacent span (or pixel) in the neighbouring tile.
+     * Cancellation is checked against {@code owner}.
+     */
+    FloodFill(int[] px, int w, Rectangle roi, Rectangle tile, int ref, int tol, BitMask mask, SpanSink spill,
+            Thread owner) {
+        this.px = px;
+        this.w = w;
+        this.minX = tile.x;
+        this.minY = tile.y;
+        this.maxX = tile.x + tile.width - 1;
+        this.maxY = tile.y + tile.height - 1;
+        this.roiMinX = roi.x;
+        this.roiMinY = roi.y;
+        this.roiMaxX = roi.x + roi.width - 1;
+        this.roiMaxY = roi.y + roi.height - 1;
+        this.refR = (ref >> 16) & 0xFF;
+        this.refG = (ref >> 8) & 0xFF;
+        this.refB = ref & 0xFF;
+        this.tol = tol;
+        this.mask = mask;
+        this.spill = spill;
+        this.owner = owner;
+    }
+
+    /**
+     * Background mode: marks (mask = true) everything connected to any of the seeds
+     * (xs[i], ys[i]) whose colour is within {@code tol} of {@code bg}. All seeds are
+     * pushed up front and share the one mask, so a region reachable from several
+     * seeds (e.g. the four corners of a uniform backdrop) is traversed only once.
+     * Already-marked pixels are treated as filled; seeds outside {@code roi} are
+     * ignored. {@code roi} must lie within the image.
+     */
+    static void fillBackground(BufferedImage img, Rectangle roi, int[] xs, int[] ys, Color bg, int tol,
+            BitMask mask) {
+        FloodFill fill = new FloodFill(Rasters.argbPixels(img), img.getWidth(), roi, bg.getRGB(), tol, mask);
+        for (int i = 0; i < xs.length; i++) {
+            if (roi.contains(xs[i], ys[i]))
+                fill.push(xs[i], ys[i]);
+        }
+        fill.run();
+    }
+
+    /** Seeds at the four corners of {@code roi}, as {xs, ys}. */
+    static int[][] cornerSeeds(Rectangle roi) {
+        int x0 = roi.x, y0 = roi.y, x1 = roi.x + roi.width - 1, y1 = roi.y + roi.height - 1;
+        return new int[][] { { x0, x1, x0, x1 }, { y0, y0, y1, y1 } };
+    }
+
+    /**
+     * Foreground mode: marks everything connected to (sx, sy) whose colour is within
+     * {@code tol} of the seed pixel's own colour, without leaving {@code roi}.
+     */
+    static void fillForeground(BufferedImage img, Rectangle roi, int sx, int sy, int tol, BitMask mask) {
+        if (!roi.contains(sx, sy))
+            return;
+        int w = img.getWidth();
+        int[] px = Rasters.argbPixels(img);
+        FloodFill fill = new FloodFill(px, w, roi, px[sy * w + sx], tol, mask);
+        fill.push(sx, sy);
+        fill.run();
+    }
+
+    /**
+     * Foreground mode for many seeds: marks the union of the regions of every seed
+     * in {@code seeds} (pixel indices y * width + x), each grown with {@code tol}
+     * around that seed's own colour. All fills share {@code mask}, so a seed that
+     * an earlier region already covers is skipped and no pixel is filled twice;
+     * the total cost is bounded by the ROI area rather than the seed count. A
+     * region stops at pixels an earlier region has taken.
+     */
+    static void fillForegroundSeeds(BufferedImage img, Rectangle roi, IntList seeds, int tol, BitMask mask) {
+        int w = img.getWidth();
+        int[] px = Rasters.argbPixels(img);
+        for (int i = 0; i < seeds.size(); i++) {
+            int idx = seeds.get(i);
+            int sx = idx % w, sy = idx / w;
+            if (!roi.contains(sx, sy) || mask.get(sx, sy))
+                continue;
+            FloodFill fill = new FloodFill(px, w, roi, px[idx], tol, mask);
+            fill.push(sx, sy);
+            fill.run();
+        }
+    }
+
+    /** L1 distance between the RGB parts of two packed colours. */
+    static int distance(int rgb, int ref) {
+        return Math.abs(((rgb >> 16) & 0xFF) - ((ref >> 16) & 0xFF))
+                + Math.abs(((rgb >> 8) & 0xFF) - ((ref >> 8) & 0xFF))
+                + Math.abs((rgb & 0xFF) - (ref & 0xFF));
+    }
+
+    // Drain the seed stack; stops as soon as every reachable span is filled.
+    void run() {
+        int spans = 0;
+        while (sp > 0) {
+            if ((++spans & 0xFFF) == 0)
+                Cancellation.check(owner);
+            int y = stack[--sp];
+            int x = stack[--sp];
+            int row = y * w;
+            if (!accepts(x, y, row))
+                continue;
+
+            // widen to the full span on this row
+            int lx = x;
+            while (lx > minX && accepts(lx - 1, y, row))
+                lx--;
+            int rx = x;
+            while (rx < maxX && accepts(rx + 1, y, row))
+                rx++;
+            mask.setSpan(lx, rx, y);
+
+            if (y > minY)
+                scanRow(lx, rx, y - 1);
+            if (y < maxY)
+                scanRow(lx, rx, y + 1);
+            if (spill != null)
+                spillEdges(lx, rx, y);
+        }
+    }
+
+    private void spillEdges(int lx, int rx, int y) {
+        if (y == minY && y > roiMinY)
+            spill.accept(lx, rx, y - 1);
+        if (y == maxY && y < roiMaxY)
+            spill.accept(lx, rx, y + 1);
+        if (lx == minX && lx > roiMinX)
+            spill.accept(lx - 1, lx - 1, y);
+        if (rx == maxX && rx < roiMaxX)
+            spill.accept(rx + 1, rx + 1, y);
+    }
+
+    // Push one seed for each run of acceptable pixels in [lx, rx] on row y.
+    void scanRow(int lx, int rx, int y) {
+        int row = y * w;
+        boolean inRun = false;
+        for (int x = lx; x <= rx; x++) {
+            if (accepts(x, y, row)) {
+                if (!inRun) {
+                    push(x, y);
+                    inRun = true;
+                }
+            } else {
+                inRun = false;
+            }
+        }
+    }
+
+    private boolean accepts(int x, int y, int row) {
+        if (mask.get(x, y))
+            return false;
+        int rgb = px[row + x];
+        int dist = Math.abs(((rgb >> 16) & 0xFF) - refR)
+                + Math.abs(((rgb >> 8) & 0xFF) - refG)
+                + Math.abs((rgb & 0xFF) - refB);
+        return dist <= tol;
+    }
+
+    private void push(int x, int y) {
+        if (sp + 2 > stack.length)
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[sp++] = x;
+        stack[sp++] = y;
+    }
+}
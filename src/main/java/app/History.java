@@ -0,0 +1,338 @@
+package app;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Undo/redo stacks of image versions bounded by heap rather than by a count.
+ * Versions are TiledImages, so an entry costs what it holds beyond the session's
+ * source image: the packed mask of a crop, the deflated tiles of another edit,
+ * or a whole image for a version with a different backing (see
+ * {@link #costOf}).
+ *
+ * When the entries on the heap exceed the budget, the ones furthest from the
+ * current version (oldest undo, furthest redo) are spilled to a
+ * {@link SpillStore} on a background thread: their tiles are packed against the
+ * source image and written to a memory-mapped temp file, and only the region
+ * index stays on the heap. The newest entry of each stack always stays. Undo
+ * and redo move entries between the stacks; one that was spilled is promoted
+ * back by reading its packed tiles, which are inflated only when shown. Its
+ * region is kept while that version is current, so when the version goes back
+ * onto a stack it is spilled already and nothing is written again. Without a
+ * store, or once the temp file cannot be written, the oldest undo entries are
+ * dropped instead.
+ *
+ * Public methods are called on the FX thread; they and the spill thread
+ * synchronize on this.
+ */
+final class History implements AutoCloseable {
+
+    /** Budget of {@code -Dimageeditor.historyMB}, or a quarter of the maximum heap. */
+    static long defaultBudget() {
+        long mb = Long.getLong("imageeditor.historyMB", -1);
+        return mb >= 0 ? mb << 20 : Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /** History with the default budget, spilling to a temp file if one can be created. */
+    static History withSpillFile() {
+        SpillStore store;
+        try {
+            store = new SpillStore();
+        } catch (IOException e) {
+            store = null; // drop entries beyond the budget then
+        }
+        return new History(defaultBudget(), store);
+    }
+
+    // One undo or redo entry; version == null once spilled. Guarded by History.this.
+    private static final class Entry {
+        TiledImage version;
+        SpillStore.Region spilled;
+        final long cost;     // heap of version
+        boolean spilling;    // a spill task is running
+        boolean live = true; // still on a stack
+
+        Entry(TiledImage version, long cost) {
+            this.version = version;
+            this.cost = cost;
+        }
+    }
+
+    private final long budgetBytes;
+    private final ArrayDeque<Entry> undo = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redo = new ArrayDeque<>();
+    private final ExecutorService spiller = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-spill");
+        t.setDaemon(true);
+        return t;
+    });
+    private SpillStore store;  // null = none given, or closed
+    private boolean canSpill;  // false once writing to the store failed
+    private BufferedImage source; // backing shared by versions derived from the opened image
+    private long usedBytes;     // cost of the entries on the heap
+    private long spillingBytes; // part of usedBytes being spilled
+    private Entry taken;              // spilled entry last promoted, while its region is kept
+    private TiledImage takenVersion;  // the version read back from it
+
+    /** History that drops its oldest entries beyond the budget. */
+    History(long budgetBytes) {
+        this(budgetBytes, null);
+    }
+
+    /** History that spills entries beyond the budget to {@code store}, which it closes. */
+    History(long budgetBytes, SpillStore store) {
+        if (budgetBytes < 0)
+            throw new IllegalArgumentException("Negative history budget: " + budgetBytes);
+        this.budgetBytes = budgetBytes;
+        this.store = store;
+        this.canSpill = store != null;
+    }
+
+    /** Empties both stacks; versions backed by {@code source} are charged only for their deltas. */
+    synchronized void clear(TiledImage source) {
+        for (Entry e : undo)
+            discard(e);
+        for (Entry e : redo)
+            discard(e);
+        undo.clear();
+        redo.clear();
+        forgetTaken();
+        this.source = source == null ? null : source.backing();
+    }
+
+    synchronized boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    synchronized boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /** Heap held by the entries that are not spilled. */
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /** Number of entries currently held in the spill file. */
+    synchronized int spilledEntries() {
+        int n = 0;
+        for (Entry e : undo)
+            n += e.spilled != null ? 1 : 0;
+        for (Entry e : redo)
+            n += e.spilled != null ? 1 : 0;
+        return n;
+    }
+
+    /** Records {@code current} before it is replaced by a new edit, which discards the redo stack. */
+    synchronized void push(TiledImage current) {
+        for (Entry e : redo)
+            discard(e);
+        redo.clear();
+        undo.addLast(entry(current));
+        enforceBudget();
+    }
+
+    /**
+     * The version before {@code current}, which moves to the redo stack; call only
+     * if canUndo(). Throws UncheckedIOException, leaving current in place, if the
+     * entry was spilled and cannot be read back; that entry is gone then.
+     */
+    synchronized TiledImage undo(TiledImage current) {
+        Entry e = undo.removeLast();
+        TiledImage prev = take(e);
+        redo.addLast(entry(current));
+        keepTaken(e, prev);
+        enforceBudget();
+        return prev;
+    }
+
+    /** The version after {@code current}, which moves to the undo stack; as {@link #undo}. */
+    synchronized TiledImage redo(TiledImage current) {
+        Entry e = redo.removeLast();
+        TiledImage next = take(e);
+        undo.addLast(entry(current));
+        keepTaken(e, next);
+        enforceBudget();
+        return next;
+    }
+
+    /** Stops spilling and deletes the spill file. */
+    @Override
+    public synchronized void close() {
+        canSpill = false; // a spill task already past its check releases its region
+        spiller.shutdownNow();
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                // the temp file is gone with the process at the latest
+            }
+            store = null;
+        }
+    }
+
+    // A stack entry for v: the entry it was promoted from if its region is still
+    // kept, so it stays spilled, or else a new heap entry.
+    private Entry entry(TiledImage v) {
+        if (taken != null && takenVersion == v) {
+            Entry e = taken;
+            taken = null;
+            takenVersion = null;
+            e.live = true;
+            return e;
+        }
+        forgetTaken();
+        Entry e = new Entry(v, costOf(v));
+        usedBytes += e.cost;
+        return e;
+    }
+
+    // Keeps the region of e, just taken and promoted to the current version v.
+    private void keepTaken(Entry e, TiledImage v) {
+        if (e.spilled != null) {
+            taken = e;
+            takenVersion = v;
+        }
+    }
+
+    private void forgetTaken() {
+        if (taken != null)
+            release(taken.spilled);
+        taken = null;
+        takenVersion = null;
+    }
+
+    // Removes e from the books; it has already left its stack.
+    private void discard(Entry e) {
+        e.live = false;
+        if (e.version != null) {
+            usedBytes -= e.cost;
+            if (e.spilling)
+                spillingBytes -= e.cost;
+        } else {
+            release(e.spilled);
+        }
+    }
+
+    // The version of an entry leaving its stack, read back from the store if
+    // spilled; the caller keeps or releases e's region.
+    private TiledImage take(Entry e) {
+        if (e.version != null) {
+            TiledImage v = e.version;
+            discard(e);
+            return v;
+        }
+        e.live = false;
+        try {
+            return TiledImage.ofPacked(source, store.get(e.spilled));
+        } catch (IOException ex) {
+            release(e.spilled);
+            throw new UncheckedIOException("Cannot read undo history back", ex);
+        }
+    }
+
+    // Spills the coldest heap entries until the rest fits the budget.
+    private void enforceBudget() {
+        if (usedBytes - spillingBytes <= budgetBytes)
+            return;
+        if (canSpill) {
+            for (Entry e : coldestFirst()) {
+                if (usedBytes - spillingBytes <= budgetBytes)
+                    return;
+                if (e.version == null || e.spilling || !spillable(e.version))
+                    continue;
+                e.spilling = true;
+                spillingBytes += e.cost;
+                spiller.execute(() -> spill(e));
+            }
+        }
+        // nothing (more) to spill: forget the oldest undo entries
+        for (Iterator<Entry> it = undo.iterator(); it.hasNext() && usedBytes - spillingBytes > budgetBytes;) {
+            Entry e = it.next();
+            if (e == undo.peekLast())
+                break;
+            if (e.version != null && !e.spilling) {
+                it.remove();
+                discard(e);
+            }
+        }
+    }
+
+    // Entries other than the newest of each stack, the furthest from the current version first.
+    private List<Entry> coldestFirst() {
+        List<Entry> out = new ArrayList<>();
+        Iterator<Entry> u = undo.iterator(), r = redo.iterator();
+        for (int i = 0; i < undo.size() - 1 || i < redo.size() - 1; i++) {
+            if (i < undo.size() - 1)
+                out.add(u.next());
+            if (i < redo.size() - 1)
+                out.add(r.next());
+        }
+        return out;
+    }
+
+    private boolean spillable(TiledImage v) {
+        return source != null && v.width() == source.getWidth() && v.height() == source.getHeight();
+    }
+
+    // On the spill thread: packs and writes e's version, then swaps it for the region.
+    private void spill(Entry e) {
+        TiledImage v;
+        BufferedImage base;
+        SpillStore s;
+        synchronized (this) {
+            if (!e.live || !canSpill) {
+                e.spilling = false;
+                return;
+            }
+            v = e.version;
+            base = source;
+            s = store;
+        }
+        SpillStore.Region r = null;
+        IOException failure = null;
+        try {
+            r = s.put(v.packTiles(base)); // the slow part, outside the lock
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        synchronized (this) {
+            e.spilling = false;
+            if (failure != null) {
+                if (e.live)
+                    spillingBytes -= e.cost;
+                canSpill = false; // e.g. disk full: drop entries from now on
+                enforceBudget();
+            } else if (e.live && canSpill && base == source) {
+                spillingBytes -= e.cost;
+                usedBytes -= e.cost;
+                e.version = null;
+                e.spilled = r;
+            } else {
+                release(r);
+            }
+        }
+    }
+
+    private void release(SpillStore.Region r) {
+        if (r != null && store != null)
+            store.release(r);
+    }
+
+    // Heap an entry keeps alive: its deltas, plus its backing unless that is the
+    // source image, which the editor holds anyway.
+    private long costOf(TiledImage v) {
+        long cost = v.deltaBytes();
+        BufferedImage b = v.backing();
+        if (b != source)
+            cost += 4L * b.getWidth() * b.getHeight();
+        return cost;
+    }
+}
@@ -1,14 +1,13 @@
 package app;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
-import javafx.embed.swing.SwingFXUtils; // needs --add-modules javafx.swing
 import javafx.geometry.Insets;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
@@ -16,19 +15,20 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,17 +46,28 @@ import javafx.collections.ObservableList;
  */
 public class ImageEditor extends Application {
 
+    private static final int VIEW_WIDTH = 1100, VIEW_HEIGHT = 700; // image fits into this
+
     private ImageView imageView;
+    private final DisplaySurface displaySurface = new DisplaySurface();
+    private final ImagePyramid viewPyramid = new ImagePyramid(); // of the image on screen
+    private ImagePyramid sourcePyramid; // of originalImage, for quick previews of crops
     private BufferedImage originalImage; // last loaded image
     private BufferedImage previewImage; // last processed image
-    private boolean[][] lastMask; // background mask (true = background)
+    private BitMask lastMask; // background mask (set = background)
+    private LiveFill liveFill; // last simple/seed crop, re-run when the tolerance moves
 
     // UI
     private Button loadBtn, saveBtn;
     private Button simpleCropBtn, seedCropBtn;
     private Button backBtn, forwardBtn;
-    private CheckBox showMaskCheck, chatModeCheck, drawingModeCheck, selectionModeCheck;
+    private CheckBox showMaskCheck, chatModeCheck, drawingModeCheck, selectionModeCheck, clearTransparentCheck;
     private Slider toleranceSlider;
+    private ComboBox<Integer> pngLevelBox;
+    private PauseTransition toleranceDebounce;
+    private ProgressBar progressBar;
+    private Label statusLabel;
+    private OperationRunner operations;
     
     // Drawing mode components
     private javafx.scene.canvas.Canvas drawCanvas;
@@ -84,9 +95,12 @@ public class ImageEditor extends Application {
     private static final int MAX_RECENT = 12;
 
     // History (Undo/Redo)
-    private ArrayDeque<BufferedImage> undoStack = new ArrayDeque<>();
-    private ArrayDeque<BufferedImage> redoStack = new ArrayDeque<>();
-    private static final int MAX_HISTORY = 15;
+    // Versions are tiled deltas against the source (a crop's packed mask, deflated
+    // tiles of other edits), kept within a memory budget (-Dimageeditor.historyMB);
+    // older entries are spilled to a temp file and read back on undo/redo
+    private final History history = History.withSpillFile();
+    private TiledImage sourceTiles; // originalImage as a version
+    private TiledImage currentVersion; // what getCurrentImage() shows; null = sourceTiles
 
     public static void main(String[] args) {
         launch(args);
@@ -98,11 +112,11 @@ public class ImageEditor extends Application {
 
         imageView = new ImageView();
         imageView.setPreserveRatio(true);
-        imageView.setFitWidth(1100);
-        imageView.setFitHeight(700);
+        imageView.setFitWidth(VIEW_WIDTH);
+        imageView.setFitHeight(VIEW_HEIGHT);
         
         // Initialize drawing canvas
-        drawCanvas = new javafx.scene.canvas.Canvas(1100, 700);
+        drawCanvas = new javafx.scene.canvas.Canvas(VIEW_WIDTH, VIEW_HEIGHT);
         drawCanvas.setMouseTransparent(true); // Initially pass events through to imageView
         drawGC = drawCanvas.getGraphicsContext2D();
         currentPath = new ArrayList<>();
@@ -114,8 +128,7 @@ public class ImageEditor extends Application {
                 return;
             if (e.getButton() == MouseButton.PRIMARY && !seedCropBtn.isDisabled()) {
                 // Robust mapping: scene -> ImageView local -> image pixel
-                var fxImg = imageView.getImage();
-                if (fxImg == null)
+                if (imageView.getImage() == null)
                     return;
                 Point2D local = imageView.sceneToLocal(e.getSceneX(), e.getSceneY());
                 Bounds b = imageView.getBoundsInLocal();
@@ -123,29 +136,37 @@ public class ImageEditor extends Application {
                         local.getX() > b.getWidth() || local.getY() > b.getHeight()) {
                     return; // click outside rendered image area
                 }
-                double scaleX = fxImg.getWidth() / b.getWidth();
-                double scaleY = fxImg.getHeight() / b.getHeight();
+                // the view may show a reduced pyramid level: map to the full-size image
+                double scaleX = originalImage.getWidth() / b.getWidth();
+                double scaleY = originalImage.getHeight() / b.getHeight();
                 int px = (int) Math.floor(local.getX() * scaleX);
                 int py = (int) Math.floor(local.getY() * scaleY);
                 if (px >= 0 && py >= 0 && px < originalImage.getWidth() && py < originalImage.getHeight()) {
-                    int tol = (int) toleranceSlider.getValue();
-                    BufferedImage newImg = seedBasedCrop(originalImage, px, py, tol);
-                    if (selectionRect != null) {
-                        newImg = combineWithSelection(originalImage, newImg, selectionRect);
-                    }
-                    applyNewImage(newImg);
+                    startSeedCrop(px, py, (int) toleranceSlider.getValue(), null);
                 }
             }
         });
 
         loadBtn = new Button("Load");
         saveBtn = new Button("Save PNG");
+        pngLevelBox = new ComboBox<>(FXCollections.observableArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        pngLevelBox.setValue(PngEncoder.DEFAULT_LEVEL);
+        pngLevelBox.setTooltip(new Tooltip("PNG compression: 0 fastest, 9 smallest"));
+        clearTransparentCheck = new CheckBox("Clear transparent");
+        clearTransparentCheck.setTooltip(new Tooltip("Save removed background as transparent black (smaller files)"));
 
         simpleCropBtn = new Button("Simple crop (corners)");
 
         showMaskCheck = new CheckBox("Show mask");
         toleranceSlider = new Slider(0, 200, 60);
         toleranceSlider.setPrefWidth(160);
+        // Live preview: re-run the last crop once the slider has rested briefly
+        toleranceDebounce = new PauseTransition(Duration.millis(150));
+        toleranceDebounce.setOnFinished(e -> previewTolerance());
+        toleranceSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (liveFill != null)
+                toleranceDebounce.playFromStart();
+        });
         var tolLabel = new Label("Tolerance:");
 
         loadBtn.setOnAction(e -> loadImage(stage));
@@ -154,12 +175,7 @@ public class ImageEditor extends Application {
         simpleCropBtn.setOnAction(e -> {
             if (originalImage == null)
                 return;
-            int tol = (int) toleranceSlider.getValue();
-            BufferedImage newImg = simpleBackgroundRemoval(originalImage, tol);
-            if (selectionRect != null) {
-                newImg = combineWithSelection(originalImage, newImg, selectionRect);
-            }
-            applyNewImage(newImg);
+            startSimpleCrop((int) toleranceSlider.getValue(), null);
         });
 
         seedCropBtn.setOnAction(e -> {
@@ -174,7 +190,7 @@ public class ImageEditor extends Application {
             if (lastMask == null)
                 return;
             if (showMaskCheck.isSelected()) {
-                updateImageView(maskToDebugImage(lastMask));
+                updateImageView(Compositor.maskToDebugImage(lastMask));
             } else {
                 updateImageView(previewImage != null ? previewImage : originalImage);
             }
@@ -197,12 +213,19 @@ public class ImageEditor extends Application {
         forwardBtn = new Button("Forward");
         forwardBtn.setOnAction(e -> redo());
         updateHistoryButtons();
+
+        // Background operations + progress
+        progressBar = new ProgressBar();
+        progressBar.setPrefWidth(120);
+        statusLabel = new Label();
+        operations = new OperationRunner(progressBar, statusLabel);
         
-        var bar = new HBox(8, loadBtn, saveBtn,
+        var bar = new HBox(8, loadBtn, saveBtn, pngLevelBox, clearTransparentCheck,
                 new Separator(), simpleCropBtn, seedCropBtn,
                 new Separator(), backBtn, forwardBtn,
                 new Separator(), tolLabel, toleranceSlider, showMaskCheck,
-                new Separator(), drawingModeCheck, selectionModeCheck, clearSelectionBtn, chatModeCheck);
+                new Separator(), drawingModeCheck, selectionModeCheck, clearSelectionBtn, chatModeCheck,
+                new Separator(), progressBar, statusLabel);
         bar.setPadding(new Insets(8));
         
         // Initialize chat components
@@ -271,6 +294,13 @@ public class ImageEditor extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        if (operations != null)
+            operations.shutdown();
+        history.close();
+    }
+
     /* ========================== IO & UI helpers ========================== */
 
     private void loadImage(Stage stage) {
@@ -285,21 +315,44 @@ public class ImageEditor extends Application {
     }
 
     private void openImageFile(File f) {
-        try {
-            originalImage = ImageIO.read(f);
-            if (originalImage == null) {
-                showError("Unsupported or unreadable image: " + f.getName());
-                return;
+        openImageFile(f, null);
+    }
+
+    // Decodes in the background (superseding any running operation) and then runs
+    // onOpened, if given, on the FX thread. Images much larger than the view are
+    // first decoded subsampled to about the view's size and shown right away; the
+    // full-resolution decode follows as a second job, and editing waits for it.
+    private void openImageFile(File f, Runnable onOpened) {
+        liveFill = null;
+        operations.submit("Opening " + f.getName(), p -> ImageFiles.withReader(f, reader -> {
+            int step = ImageFiles.previewStep(reader.getWidth(0), reader.getHeight(0), VIEW_WIDTH, VIEW_HEIGHT);
+            return step > 1 ? ImageFiles.read(reader, null, step) : null;
+        }), preview -> {
+            if (preview != null) {
+                resetForNewImage(null);
+                updateImageView(preview);
             }
-            previewImage = null;
-            lastMask = null;
-            showMaskCheck.setSelected(false);
-            updateImageView(originalImage);
-            addToRecent(f);
-            clearHistory();
-        } catch (IOException ex) {
-            showError("Cannot read image: " + ex.getMessage());
-        }
+            operations.submit(preview != null ? "Loading full resolution of " + f.getName() : "Opening " + f.getName(),
+                    p -> ImageFiles.withReader(f, reader -> ImageFiles.read(reader, null, 1)), img -> {
+                        resetForNewImage(img);
+                        updateImageView(originalImage);
+                        addToRecent(f);
+                        if (onOpened != null)
+                            onOpened.run();
+                    }, ex -> showError("Cannot read image: " + ex.getMessage()));
+        }, ex -> showError("Cannot read image: " + ex.getMessage()));
+    }
+
+    private void resetForNewImage(BufferedImage img) {
+        originalImage = img;
+        sourcePyramid = img == null ? null : new ImagePyramid(img);
+        sourceTiles = img == null ? null : TiledImage.wrap(img);
+        currentVersion = null;
+        SeedDistanceMap.clearCache(); // maps of the previous image are dead weight now
+        previewImage = null;
+        lastMask = null;
+        showMaskCheck.setSelected(false);
+        clearHistory();
     }
 
     private void addToRecent(File f) {
@@ -316,7 +369,7 @@ public class ImageEditor extends Application {
     }
 
     private void saveImage(Stage stage) {
-        if (previewImage == null && originalImage == null)
+        if (getCurrentVersion() == null)
             return;
         var fc = new FileChooser();
         fc.setTitle("Save PNG");
@@ -324,162 +377,146 @@ public class ImageEditor extends Application {
         File f = fc.showSaveDialog(stage);
         if (f == null)
             return;
-        try {
-            BufferedImage toSave = (previewImage != null) ? previewImage : originalImage;
-            ImageIO.write(toSave, "PNG", f);
-        } catch (IOException ex) {
-            showError("Cannot save: " + ex.getMessage());
-        }
+        TiledImage toSave = getCurrentVersion(); // composed in the job, also right while an undo is pending
+        int level = pngLevelBox.getValue();
+        boolean clear = clearTransparentCheck.isSelected();
+        operations.submitUninterruptible("Saving " + f.getName(), p -> writePng(toSave.toBufferedImage(), f, level, clear),
+                ok -> {
+                }, ex -> showError("Cannot save: " + ex.getMessage()));
     }
 
+    // Rows are deflated in parallel on the common pool; see PngEncoder.
+    private static File writePng(BufferedImage img, File f, int level, boolean clearTransparent) throws IOException {
+        PngEncoder.write(img, f.toPath(), level, clearTransparent, ForkJoinPool.commonPool());
+        return f;
+    }
+
+    // Shows the pyramid level of img closest to its on-screen size. The levels
+    // built so far are recomputed in full; the overload below limits that to the
+    // part known to have changed.
     private void updateImageView(BufferedImage img) {
         if (img == null) {
             imageView.setImage(null);
             return;
         }
-        WritableImage fx = SwingFXUtils.toFXImage(img, null);
-        imageView.setImage(fx);
+        viewPyramid.setBase(img);
+        showOnSurface(viewPyramid.level(ImagePyramid.levelFor(img.getWidth(), img.getHeight(), VIEW_WIDTH, VIEW_HEIGHT)));
     }
 
-    private void showError(String msg) {
-        new Alert(Alert.AlertType.ERROR, msg, ButtonType.OK).showAndWait();
+    // As above when img differs from the pyramid's current base only inside `changed`.
+    private void updateImageView(BufferedImage img, Rectangle changed) {
+        viewPyramid.setBase(img, changed);
+        showOnSurface(viewPyramid.level(ImagePyramid.levelFor(img.getWidth(), img.getHeight(), VIEW_WIDTH, VIEW_HEIGHT)));
     }
 
-    /* ========================== Pure-Java methods ========================== */
+    private void showOnSurface(BufferedImage img) {
+        displaySurface.show(img); // writes just the changed pixels into the shown buffer
+        if (imageView.getImage() != displaySurface.image())
+            imageView.setImage(displaySurface.image());
+    }
 
-    // 1) Background removal by sampling corners and flood-filling similar colors as
-    // background.
-    private BufferedImage simpleBackgroundRemoval(BufferedImage src, int tolerance) {
-        int w = src.getWidth(), h = src.getHeight();
-        boolean[][] mask = new boolean[w][h]; // true = background
+    private void showError(String msg) {
+        new Alert(Alert.AlertType.ERROR, msg, ButtonType.OK).showAndWait();
+    }
 
-        Color bg = sampleBackgroundColor(src);
-        floodFillBackground(src, 0, 0, bg, tolerance, mask);
-        floodFillBackground(src, w - 1, 0, bg, tolerance, mask);
-        floodFillBackground(src, 0, h - 1, bg, tolerance, mask);
-        floodFillBackground(src, w - 1, h - 1, bg, tolerance, mask);
+    // Runs a background operation off the FX thread; the result is applied (and
+    // onApplied run) back on the FX thread unless a newer operation superseded it.
+    private void runOperation(String label, OperationRunner.Job<Cutout> job, Runnable onApplied) {
+        runOperation(label, job, null, onApplied);
+    }
 
-        lastMask = mask;
-        return composeTransparent(src, mask);
+    // As above; once applied, `live` (if any) becomes the session the tolerance
+    // slider previews against.
+    private void runOperation(String label, OperationRunner.Job<Cutout> job, LiveFill live, Runnable onApplied) {
+        liveFill = null;
+        toleranceDebounce.stop();
+        BufferedImage onScreen = viewPyramid.base();
+        operations.submit(label, p -> shown(job.run(p), onScreen), s -> {
+            lastMask = s.result().mask();
+            applyNewImage(s.composed(), s.result().version());
+            liveFill = live;
+            if (onApplied != null)
+                onApplied.run();
+        }, ex -> showError(label + " failed: " + ex.getMessage()));
     }
 
-    // 2) Seed-based crop: user clicks inside the object to keep; flood-fill similar
-    // colors = foreground.
-    private BufferedImage seedBasedCrop(BufferedImage src, int sx, int sy, int tol) {
-        int w = src.getWidth(), h = src.getHeight();
-        boolean[][] fg = new boolean[w][h]; // true = foreground
-        floodFillForeground(src, sx, sy, tol, fg);
-
-        // convert to background mask (true=background)
-        boolean[][] bgMask = new boolean[w][h];
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++)
-                bgMask[x][y] = !fg[x][y];
-        lastMask = bgMask;
-        return composeTransparent(src, bgMask);
+    // A crop run on pyramid level k of the source: img is that level and roi is
+    // already scaled to it.
+    private interface LevelCrop {
+        Cutout run(BufferedImage img, Rectangle roi, int k) throws Exception;
     }
 
-    private void floodFillBackground(BufferedImage img, int sx, int sy, Color bg, int tol, boolean[][] mask) {
-        int w = img.getWidth(), h = img.getHeight();
-        boolean[][] seen = new boolean[w][h];
-        var q = new ArrayDeque<int[]>();
-        if (sx < 0 || sy < 0 || sx >= w || sy >= h)
+    // For sources larger than the view, the crop first runs on the pyramid level
+    // the view shows, and that quick result is displayed (not applied) while the
+    // full-resolution crop runs as a second job and then replaces it.
+    private void runOperation(String label, BufferedImage src, Rectangle roi, LevelCrop crop, LiveFill live,
+            Runnable onApplied) {
+        OperationRunner.Job<Cutout> full = p -> crop.run(src, roi, 0);
+        int k = ImagePyramid.levelFor(src.getWidth(), src.getHeight(), VIEW_WIDTH, VIEW_HEIGHT);
+        ImagePyramid pyramid = sourcePyramid;
+        if (k == 0 || pyramid == null || pyramid.base() != src) {
+            runOperation(label, full, live, onApplied);
             return;
-        q.add(new int[] { sx, sy });
-        while (!q.isEmpty()) {
-            int[] p = q.remove();
-            int x = p[0], y = p[1];
-            if (x < 0 || y < 0 || x >= w || y >= h)
-                continue;
-            if (seen[x][y])
-                continue;
-            seen[x][y] = true;
-
-            int rgb = img.getRGB(x, y);
-            int rr = (rgb >> 16) & 0xFF, gg = (rgb >> 8) & 0xFF, bb = rgb & 0xFF;
-            int dr = rr - bg.getRed(), dg = gg - bg.getGreen(), db = bb - bg.getBlue();
-            int dist = Math.abs(dr) + Math.abs(dg) + Math.abs(db);
-            if (dist <= tol) {
-                mask[x][y] = true;
-                q.add(new int[] { x + 1, y });
-                q.add(new int[] { x - 1, y });
-                q.add(new int[] { x, y + 1 });
-                q.add(new int[] { x, y - 1 });
-            }
         }
+        liveFill = null;
+        toleranceDebounce.stop();
+        operations.submit(label + " (preview)", p -> {
+            BufferedImage small = pyramid.level(k);
+            return crop.run(small, ImagePyramid.scaleDown(roi, k, small.getWidth(), small.getHeight()), k).image();
+        }, quick -> {
+            showMaskCheck.setSelected(false);
+            showOnSurface(quick);
+            runOperation(label, full, live, onApplied);
+        }, ex -> showError(label + " failed: " + ex.getMessage()));
     }
 
-    private void floodFillForeground(BufferedImage img, int sx, int sy, int tol, boolean[][] mask) {
-        int w = img.getWidth(), h = img.getHeight();
-        boolean[][] seen = new boolean[w][h];
-        var q = new ArrayDeque<int[]>();
-        if (sx < 0 || sy < 0 || sx >= w || sy >= h)
-            return;
-        int seed = img.getRGB(sx, sy);
-        int sr = (seed >> 16) & 0xFF, sg = (seed >> 8) & 0xFF, sb = seed & 0xFF;
-        q.add(new int[] { sx, sy });
-        while (!q.isEmpty()) {
-            int[] p = q.remove();
-            int x = p[0], y = p[1];
-            if (x < 0 || y < 0 || x >= w || y >= h)
-                continue;
-            if (seen[x][y])
-                continue;
-            seen[x][y] = true;
-
-            int rgb = img.getRGB(x, y);
-            int rr = (rgb >> 16) & 0xFF, gg = (rgb >> 8) & 0xFF, bb = rgb & 0xFF;
-            int dr = rr - sr, dg = gg - sg, db = bb - sb;
-            int dist = Math.abs(dr) + Math.abs(dg) + Math.abs(db);
-            if (dist <= tol) {
-                mask[x][y] = true;
-                q.add(new int[] { x + 1, y });
-                q.add(new int[] { x - 1, y });
-                q.add(new int[] { x, y + 1 });
-                q.add(new int[] { x, y - 1 });
-            }
-        }
+    private void startSimpleCrop(int tol, Runnable onApplied) {
+        BufferedImage src = originalImage;
+        Rectangle roi = activeRegion();
+        LiveFill live = LiveFill.background(src, roi, CropOperations.sampleBackgroundColor(src, roi));
+        runOperation("Simple crop", src, roi, (img, r, k) -> CropOperations.simpleBackgroundRemoval(img, tol, r),
+                live, onApplied);
     }
 
-    private Color sampleBackgroundColor(BufferedImage img) {
-        int w = img.getWidth(), h = img.getHeight();
-        int[] px = { img.getRGB(0, 0), img.getRGB(w - 1, 0), img.getRGB(0, h - 1), img.getRGB(w - 1, h - 1) };
-        long r = 0, g = 0, b = 0;
-        for (int p : px) {
-            r += (p >> 16) & 0xFF;
-            g += (p >> 8) & 0xFF;
-            b += p & 0xFF;
-        }
-        return new Color((int) (r / 4), (int) (g / 4), (int) (b / 4));
+    private void startSeedCrop(int px, int py, int tol, Runnable onApplied) {
+        BufferedImage src = originalImage;
+        Rectangle roi = activeRegion();
+        LiveFill live = roi.contains(px, py) ? LiveFill.foreground(src, roi, px, py) : null;
+        runOperation("Seed crop", src, roi, (img, r, k) -> CropOperations.seedBasedCrop(img, px >> k, py >> k, tol, r),
+                live, onApplied);
     }
 
-    private BufferedImage composeTransparent(BufferedImage src, boolean[][] bgMask) {
-        int w = src.getWidth(), h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int rgb = src.getRGB(x, y) & 0x00FFFFFF;
-                if (bgMask[x][y])
-                    out.setRGB(x, y, rgb); // alpha 0
-                else
-                    out.setRGB(x, y, (0xFF << 24) | rgb);
-            }
-        }
-        return out;
+    // Re-runs the last crop at the slider's tolerance and swaps the result in place
+    // (no extra history entry: the crop itself is already on the undo stack).
+    private void previewTolerance() {
+        LiveFill session = liveFill;
+        if (session == null)
+            return;
+        int tol = (int) toleranceSlider.getValue();
+        BufferedImage onScreen = viewPyramid.base();
+        operations.submit("Preview tolerance " + tol, p -> shown(session.update(tol), onScreen), s -> {
+            if (liveFill != session)
+                return; // undone or replaced meanwhile
+            previewImage = s.image();
+            currentVersion = s.result().version();
+            lastMask = s.result().mask();
+            if (showMaskCheck.isSelected())
+                updateImageView(Compositor.maskToDebugImage(lastMask));
+            else
+                showComposed(s.composed());
+        }, ex -> showError("Tolerance preview failed: " + ex.getMessage()));
     }
 
-    private BufferedImage maskToDebugImage(boolean[][] mask) {
-        int w = mask.length, h = mask[0].length;
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (mask[x][y])
-                    out.setRGB(x, y, 0x80FF0000); // semi red = background
-                else
-                    out.setRGB(x, y, 0x8000FF00); // semi green = foreground
-            }
-        }
-        return out;
+    /* ========================== Pure-Java methods ========================== */
+
+    // Region the operations work on: the selection clipped to the image, or the
+    // whole image when there is no (non-empty) selection.
+    private Rectangle activeRegion() {
+        Rectangle full = new Rectangle(0, 0, originalImage.getWidth(), originalImage.getHeight());
+        if (selectionRect == null)
+            return full;
+        Rectangle roi = selectionRect.intersection(full);
+        return roi.isEmpty() ? full : roi;
     }
 
     /* ========================== History (Undo/Redo) ========================== */
@@ -488,60 +525,111 @@ public class ImageEditor extends Application {
         return (previewImage != null) ? previewImage : originalImage;
     }
 
-    private void applyNewImage(BufferedImage newImage) {
-        if (newImage == null) return;
-        BufferedImage current = getCurrentImage();
-        if (current != null) {
-            if (undoStack.size() >= MAX_HISTORY) undoStack.removeFirst();
-            undoStack.addLast(current);
+    private TiledImage getCurrentVersion() {
+        return (currentVersion != null) ? currentVersion : sourceTiles;
+    }
+
+    // An operation result with its version composed for display on the job thread.
+    private record Shown(Cutout result, Composed composed) {
+        BufferedImage image() {
+            return composed.image();
         }
-        redoStack.clear();
-        previewImage = newImage;
+    }
+
+    private static Shown shown(Cutout result, BufferedImage onScreen) {
+        return new Shown(result, compose(result.version(), onScreen));
+    }
+
+    // A version's pixels composed on the worker, with the bounds in which they
+    // differ from comparedTo, the view pyramid's base when the job was submitted
+    // (null if the sizes differ).
+    private record Composed(BufferedImage image, BufferedImage comparedTo, Rectangle changed) {
+    }
+
+    // On the worker. A version backed by the image on screen differs from it only
+    // in its replaced tiles (a crop of the source: its ROI); anything else is
+    // compared pixel by pixel.
+    private static Composed compose(TiledImage v, BufferedImage onScreen) {
+        BufferedImage img = v.toBufferedImage();
+        if (onScreen == null || onScreen.getWidth() != img.getWidth() || onScreen.getHeight() != img.getHeight())
+            return new Composed(img, null, null);
+        Rectangle changed = v.backing() == onScreen ? v.replacedBounds() : ImagePyramid.changedBounds(onScreen, img);
+        return new Composed(img, onScreen, changed);
+    }
+
+    // Shows c's image; the view pyramid is updated only inside the changed bounds
+    // if it still shows what they were worked out against.
+    private void showComposed(Composed c) {
+        if (c.comparedTo() != null && viewPyramid.base() == c.comparedTo())
+            updateImageView(c.image(), c.changed());
+        else
+            updateImageView(c.image());
+    }
+
+    private void applyNewImage(Composed composed, TiledImage version) {
+        if (composed.image() == null) return;
+        TiledImage current = getCurrentVersion();
+        if (current != null) history.push(current);
+        previewImage = composed.image();
+        currentVersion = version;
         showMaskCheck.setSelected(false);
         lastMask = (lastMask != null) ? lastMask : null; // placeholder to keep compiler calm
-        updateImageView(previewImage);
+        showComposed(composed);
         updateHistoryButtons();
     }
 
     private void undo() {
-        if (undoStack.isEmpty()) return;
-        BufferedImage current = getCurrentImage();
-        if (current != null) {
-            if (redoStack.size() >= MAX_HISTORY) redoStack.removeFirst();
-            redoStack.addLast(current);
+        if (!history.canUndo()) return;
+        TiledImage prev;
+        try {
+            prev = history.undo(getCurrentVersion());
+        } catch (UncheckedIOException ex) {
+            showError(ex.getMessage() + ": " + ex.getCause().getMessage());
+            updateHistoryButtons();
+            return;
         }
-        BufferedImage prev = undoStack.removeLast();
-        previewImage = prev;
-        showMaskCheck.setSelected(false);
-        lastMask = null;
-        updateImageView(previewImage);
-        updateHistoryButtons();
+        showVersion("Undo", prev);
     }
 
     private void redo() {
-        if (redoStack.isEmpty()) return;
-        BufferedImage current = getCurrentImage();
-        if (current != null) {
-            if (undoStack.size() >= MAX_HISTORY) undoStack.removeFirst();
-            undoStack.addLast(current);
+        if (!history.canRedo()) return;
+        TiledImage nxt;
+        try {
+            nxt = history.redo(getCurrentVersion());
+        } catch (UncheckedIOException ex) {
+            showError(ex.getMessage() + ": " + ex.getCause().getMessage());
+            updateHistoryButtons();
+            return;
         }
-        BufferedImage nxt = redoStack.removeLast();
-        previewImage = nxt;
+        showVersion("Redo", nxt);
+    }
+
+    // Makes v current at once; its tiles are composed and compared with what is
+    // on screen on the worker, so undo/redo never wait on image-sized work on the
+    // FX thread. Another undo/redo or operation supersedes a pending one.
+    private void showVersion(String label, TiledImage v) {
+        currentVersion = v;
         showMaskCheck.setSelected(false);
         lastMask = null;
-        updateImageView(previewImage);
+        liveFill = null;
         updateHistoryButtons();
+        BufferedImage onScreen = viewPyramid.base();
+        operations.submit(label, p -> compose(v, onScreen), c -> {
+            if (currentVersion != v)
+                return; // superseded meanwhile
+            previewImage = c.image();
+            showComposed(c);
+        }, ex -> showError(label + " failed: " + ex.getMessage()));
     }
 
     private void clearHistory() {
-        undoStack.clear();
-        redoStack.clear();
+        history.clear(sourceTiles);
         updateHistoryButtons();
     }
 
     private void updateHistoryButtons() {
-        if (backBtn != null) backBtn.setDisable(undoStack.isEmpty());
-        if (forwardBtn != null) forwardBtn.setDisable(redoStack.isEmpty());
+        if (backBtn != null) backBtn.setDisable(!history.canUndo());
+        if (forwardBtn != null) forwardBtn.setDisable(!history.canRedo());
     }
     
     private void toggleChatMode() {
@@ -599,14 +687,13 @@ public class ImageEditor extends Application {
                     addChatResponse("File not found: " + f.getAbsolutePath());
                     return;
                 }
-                openImageFile(f);
-                addChatResponse("Opened: " + f.getName());
+                openImageFile(f, () -> addChatResponse("Opened: " + f.getName()));
                 return;
             }
 
             // 2) Save image (optional path)
             if (startsWithAny(command, new String[]{"save ", "export ", "save", "export"}) || command.equals("save") || command.equals("export")) {
-                if (previewImage == null && originalImage == null) {
+                if (getCurrentVersion() == null) {
                     addChatResponse("Nothing to save. Load or process an image first.");
                     return;
                 }
@@ -615,19 +702,20 @@ public class ImageEditor extends Application {
                     addChatResponse("Please provide a .png path, e.g., save C:/path/out.png");
                     return;
                 }
-                try {
-                    File out = new File(path);
-                    if (!out.getName().toLowerCase().endsWith(".png")) {
-                        File out2 = out;
-                        String strs = out2.getParentFile() == null ? "." : out2.getParentFile() + File.separator + out2.getName() + ".png";
-                        out = new File(strs);
-                    }
-                    BufferedImage toSave = (previewImage != null) ? previewImage : originalImage;
-                    ImageIO.write(toSave, "PNG", out);
-                    addChatResponse("Saved: " + out.getAbsolutePath());
-                } catch (IOException ioe) {
-                    addChatResponse("Save failed: " + ioe.getMessage());
+                File out = new File(path);
+                if (!out.getName().toLowerCase().endsWith(".png")) {
+                    File out2 = out;
+                    String strs = out2.getParentFile() == null ? "." : out2.getParentFile() + File.separator + out2.getName() + ".png";
+                    out = new File(strs);
                 }
+                File target = out;
+                TiledImage toSave = getCurrentVersion();
+                int level = pngLevelBox.getValue();
+                boolean clear = clearTransparentCheck.isSelected();
+                operations.submitUninterruptible("Saving " + target.getName(),
+                        p -> writePng(toSave.toBufferedImage(), target, level, clear),
+                        ok -> addChatResponse("Saved: " + target.getAbsolutePath()),
+                        ex -> addChatResponse("Save failed: " + ex.getMessage()));
                 return;
             }
 
@@ -672,7 +760,7 @@ public class ImageEditor extends Application {
                     addChatResponse("No mask available yet. Try remove background or seed crop.");
                 } else {
                     showMaskCheck.setSelected(true);
-                    updateImageView(maskToDebugImage(lastMask));
+                    updateImageView(Compositor.maskToDebugImage(lastMask));
                     addChatResponse("Mask shown.");
                 }
                 return;
@@ -701,12 +789,7 @@ public class ImageEditor extends Application {
             // 6) Background removal (simple corners)
             if (containsAny(command, new String[]{"remove background", "erase background", "make background transparent", "background remove", "crop background"})) {
                 int tol = (int) toleranceSlider.getValue();
-                BufferedImage newImg = simpleBackgroundRemoval(originalImage, tol);
-                if (selectionRect != null) {
-                    newImg = combineWithSelection(originalImage, newImg, selectionRect);
-                }
-                applyNewImage(newImg);
-                addChatResponse("Background removed using tolerance " + tol + ".");
+                startSimpleCrop(tol, () -> addChatResponse("Background removed using tolerance " + tol + "."));
                 return;
             }
 
@@ -716,14 +799,10 @@ public class ImageEditor extends Application {
                 int px = Integer.parseInt(mSeed.group(2));
                 int py = Integer.parseInt(mSeed.group(3));
                 int tol = (int) toleranceSlider.getValue();
-                px = Math.max(0, Math.min(originalImage.getWidth()-1, px));
-                py = Math.max(0, Math.min(originalImage.getHeight()-1, py));
-                BufferedImage newImg = seedBasedCrop(originalImage, px, py, tol);
-                if (selectionRect != null) {
-                    newImg = combineWithSelection(originalImage, newImg, selectionRect);
-                }
-                applyNewImage(newImg);
-                addChatResponse("Seed crop at (" + px + ", " + py + ") with tolerance " + tol + ".");
+                int sx = Math.max(0, Math.min(originalImage.getWidth()-1, px));
+                int sy = Math.max(0, Math.min(originalImage.getHeight()-1, py));
+                startSeedCrop(sx, sy, tol,
+                        () -> addChatResponse("Seed crop at (" + sx + ", " + sy + ") with tolerance " + tol + "."));
                 return;
             }
 
@@ -736,16 +815,19 @@ public class ImageEditor extends Application {
             // 9) Reset preview
             if (containsAny(command, new String[]{"reset", "revert", "original", "clear preview"})) {
                 // push current to undo and show original
-                BufferedImage current = getCurrentImage();
-                if (current != null) {
-                    if (undoStack.size() >= MAX_HISTORY) undoStack.removeFirst();
-                    undoStack.addLast(current);
-                }
-                redoStack.clear();
+                TiledImage current = getCurrentVersion();
+                if (current != null) history.push(current);
+                boolean overSource = current != null && current.backing() == originalImage
+                        && viewPyramid.base() == getCurrentImage();
                 previewImage = null; // show original
+                currentVersion = null;
                 showMaskCheck.setSelected(false);
                 lastMask = null;
-                updateImageView(originalImage);
+                liveFill = null;
+                if (overSource)
+                    updateImageView(originalImage, current.replacedBounds()); // it changed only those tiles
+                else
+                    updateImageView(originalImage);
                 updateHistoryButtons();
                 addChatResponse("Preview reset to original image.");
                 return;
@@ -816,76 +898,49 @@ public class ImageEditor extends Application {
     }
     
     private void detectAndHighlightShapes() {
-        // Use the existing flood fill algorithm with multiple seed points
+        // One connected-component labeling pass over the active region
         if (originalImage == null) return;
         
-        int w = originalImage.getWidth();
-        int h = originalImage.getHeight();
-        boolean[][] visited = new boolean[w][h];
-        List<Point> seeds = findPotentialShapeSeeds(originalImage);
-        
-        if (seeds.isEmpty()) {
-            addChatResponse("No distinct shapes detected.");
-            return;
-        }
-        
-        // Use existing seed-based crop for each detected seed point
+        BufferedImage src = originalImage;
+        int w = src.getWidth();
+        int h = src.getHeight();
+        Rectangle roi = activeRegion();
         int tol = (int) toleranceSlider.getValue();
-        BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = result.createGraphics();
-        g.drawImage(originalImage, 0, 0, null);
+        int[] counts = new int[2]; // {components, highlighted shapes}, read once the job has succeeded
         
-        for (Point seed : seeds) {
-            if (!visited[seed.x][seed.y]) {
-                BufferedImage shape = seedBasedCrop(originalImage, seed.x, seed.y, tol);
-                g.drawImage(shape, 0, 0, null);
+        runOperation("Detect shapes", progress -> {
+            ComponentLabeler.Labels labels = ComponentLabeler.label(src, roi, tol, ForkJoinPool.commonPool());
+            
+            // The largest component is taken as the background; specks below minArea are noise
+            int background = 1;
+            for (int l = 2; l <= labels.count(); l++) {
+                if (labels.component(l).area() > labels.component(background).area()) background = l;
             }
-        }
-        g.dispose();
-        
-        applyNewImage(result);
-        addChatResponse("Detected " + seeds.size() + " potential shapes.");
-    }
-    
-    private List<Point> findPotentialShapeSeeds(BufferedImage img) {
-        List<Point> seeds = new ArrayList<>();
-        int w = img.getWidth();
-        int h = img.getHeight();
-        int step = Math.max(w, h) / 20; // Sample every 5% of the image
-        
-        for (int y = step; y < h - step; y += step) {
-            for (int x = step; x < w - step; x += step) {
-                if (isLocalColorDifference(img, x, y, step)) {
-                    seeds.add(new Point(x, y));
-                }
+            int minArea = Math.max(16, roi.width * roi.height / 10000);
+            
+            BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = result.createGraphics();
+            g.drawImage(src, 0, 0, null);
+            g.setColor(Color.RED);
+            g.setStroke(new BasicStroke(Math.max(1, Math.max(w, h) / 500f)));
+            int shapes = 0;
+            for (int l = 1; l <= labels.count(); l++) {
+                ComponentLabeler.Component c = labels.component(l);
+                if (l == background || c.area() < minArea) continue;
+                Rectangle b = c.bounds();
+                g.drawRect(b.x, b.y, b.width - 1, b.height - 1);
+                shapes++;
             }
-        }
-        return seeds;
+            g.dispose();
+            
+            counts[0] = labels.count();
+            counts[1] = shapes;
+            // history keeps only the tiles with outlines
+            return new Cutout(TiledImage.diff(TiledImage.wrap(src), result), labels.mask(background, w, h));
+        }, () -> addChatResponse("Detected " + counts[1] + " shapes (" + counts[0]
+                + " connected regions at tolerance " + tol + ")."));
     }
     
-    private boolean isLocalColorDifference(BufferedImage img, int x, int y, int step) {
-        int center = img.getRGB(x, y);
-        int top = img.getRGB(x, Math.max(0, y - step));
-        int bottom = img.getRGB(x, Math.min(img.getHeight() - 1, y + step));
-        int left = img.getRGB(Math.max(0, x - step), y);
-        int right = img.getRGB(Math.min(img.getWidth() - 1, x + step), y);
-        
-        return colorDifference(center, top) > 30 ||
-               colorDifference(center, bottom) > 30 ||
-               colorDifference(center, left) > 30 ||
-               colorDifference(center, right) > 30;
-    }
-    
-    private int colorDifference(int rgb1, int rgb2) {
-        int r1 = (rgb1 >> 16) & 0xFF;
-        int g1 = (rgb1 >> 8) & 0xFF;
-        int b1 = rgb1 & 0xFF;
-        int r2 = (rgb2 >> 16) & 0xFF;
-        int g2 = (rgb2 >> 8) & 0xFF;
-        int b2 = rgb2 & 0xFF;
-        
-        return Math.abs(r1 - r2) + Math.abs(g1 - g2) + Math.abs(b1 - b2);
-    }
     
     private void loadChatHistory() {
         try {
@@ -1015,23 +1070,6 @@ public class ImageEditor extends Application {
         drawGC.clearRect(0, 0, drawCanvas.getWidth(), drawCanvas.getHeight());
     }
 
-    private BufferedImage combineWithSelection(BufferedImage original, BufferedImage processed, java.awt.Rectangle sel) {
-        if (original == null || processed == null || sel == null) return processed;
-        int w = original.getWidth();
-        int h = original.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (sel.contains(x, y)) {
-                    out.setRGB(x, y, processed.getRGB(x, y));
-                } else {
-                    out.setRGB(x, y, original.getRGB(x, y));
-                }
-            }
-        }
-        return out;
-    }
-
     private void toggleDrawingMode() {
         boolean enabled = drawingModeCheck.isSelected();
         drawCanvas.setMouseTransparent(!enabled);
@@ -1076,18 +1114,19 @@ public class ImageEditor extends Application {
     }
     
     private Point2D convertToImageCoordinates(double x, double y) {
-        var fxImg = imageView.getImage();
-        if (fxImg == null) return new Point2D(x, y);
+        if (imageView.getImage() == null || originalImage == null) return new Point2D(x, y);
         
         Point2D local = imageView.sceneToLocal(x, y);
         Bounds b = imageView.getBoundsInLocal();
         
-        double scaleX = fxImg.getWidth() / b.getWidth();
-        double scaleY = fxImg.getHeight() / b.getHeight();
+        // the view may show a reduced pyramid level: map to the full-size image
+        double w = originalImage.getWidth(), h = originalImage.getHeight();
+        double scaleX = w / b.getWidth();
+        double scaleY = h / b.getHeight();
         
         return new Point2D(
-            Math.max(0, Math.min(fxImg.getWidth() - 1, local.getX() * scaleX)),
-            Math.max(0, Math.min(fxImg.getHeight() - 1, local.getY() * scaleY))
+            Math.max(0, Math.min(w - 1, local.getX() * scaleX)),
+            Math.max(0, Math.min(h - 1, local.getY() * scaleY))
         );
     }
     
@@ -1102,10 +1141,10 @@ public class ImageEditor extends Application {
     private void processDrawnShape() {
         if (currentPath.size() < 3 || originalImage == null) return;
         
-        // Create a mask from the drawn path
-        int w = originalImage.getWidth();
-        int h = originalImage.getHeight();
-        boolean[][] shapeMask = new boolean[w][h];
+        BufferedImage src = originalImage;
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int tol = (int) toleranceSlider.getValue();
         
         // Convert path to polygon
         int[] xPoints = new int[currentPath.size()];
@@ -1116,51 +1155,22 @@ public class ImageEditor extends Application {
             yPoints[i] = (int) p.getY();
         }
         
-        // Create polygon for shape detection
-        java.awt.Polygon poly = new java.awt.Polygon(xPoints, yPoints, currentPath.size());
-        
-        // Fill the mask based on the polygon
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (poly.contains(x, y)) {
-                    shapeMask[x][y] = true;
-                }
-            }
+        int n = currentPath.size();
+        Rectangle bounds = new java.awt.Polygon(xPoints, yPoints, n).getBounds()
+                .intersection(new Rectangle(0, 0, w, h));
+        if (bounds.isEmpty()) {
+            clearDrawing();
+            return;
         }
         
-        // Use the mask to crop the image
-        BufferedImage newImg = applyShapeMask(originalImage, shapeMask);
-        applyNewImage(newImg);
+        runOperation("Lasso crop", progress -> {
+            // Rasterize the drawn path (even-odd, same pixels as java.awt.Polygon.contains)
+            BitMask shapeMask = PolygonRasterizer.fill(xPoints, yPoints, n, w, h, true);
+            // Use the mask to crop the image
+            return CropOperations.lassoCrop(src, shapeMask, bounds, tol);
+        }, null);
         
         // Clear the drawing for the next shape
         clearDrawing();
     }
-    
-    private BufferedImage applyShapeMask(BufferedImage src, boolean[][] shapeMask) {
-        int w = src.getWidth(), h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        int tol = (int) toleranceSlider.getValue();
-        
-        // Find seed points inside the shape
-        List<Point> seeds = new ArrayList<>();
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (shapeMask[x][y] && isLocalColorDifference(src, x, y, 5)) {
-                    seeds.add(new Point(x, y));
-                }
-            }
-        }
-        
-        // Apply flood fill from each seed point
-        Graphics2D g = out.createGraphics();
-        g.drawImage(src, 0, 0, null);
-        
-        for (Point seed : seeds) {
-            BufferedImage shape = seedBasedCrop(src, seed.x, seed.y, tol);
-            g.drawImage(shape, 0, 0, null);
-        }
-        g.dispose();
-        
-        return out;
-    }
 }
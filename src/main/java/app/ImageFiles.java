@@ -0,0 +1,143 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Partial decoding through ImageReadParam: a subsampled preview of a large file
+ * (setSourceSubsampling) or a single region of it (setSourceRegion), so neither
+ * needs the full-resolution raster in memory. Decoded images are TYPE_INT_ARGB
+ * (see Rasters.toIntArgb). Reads stop at the next scanline callback once the
+ * calling thread is interrupted and unwind with a CancellationException.
+ */
+final class ImageFiles {
+
+    private ImageFiles() {
+    }
+
+    /** Reads a file's first image; a reader already positioned on it is handed to the callback. */
+    interface ReaderJob<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    /**
+     * Opens {@code f} with the first ImageIO reader that accepts it and runs
+     * {@code job}; the reader and stream are closed afterwards.
+     */
+    static <T> T withReader(File f, ReaderJob<T> job) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(f)) {
+            if (stream == null)
+                throw new IOException("Cannot open file");
+            return withReader(stream, job);
+        }
+    }
+
+    /** As {@link #withReader(File, ReaderJob)} for an open stream, which is left open. */
+    static <T> T withReader(ImageInputStream stream, ReaderJob<T> job) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext())
+            throw new IOException("Unsupported image format");
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(stream, true, true);
+            return job.run(reader);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Smallest subsampling step whose result still covers a {@code viewW} x
+     * {@code viewH} view at fit-to-view scale, so the preview looks no worse than
+     * the full image would; 1 if the image is not much larger than the view.
+     */
+    static int previewStep(int w, int h, int viewW, int viewH) {
+        // fit-to-view shows the image at 1 / max(w / viewW, h / viewH) of its size
+        return Math.max(1, (int) Math.max((double) w / viewW, (double) h / viewH));
+    }
+
+    /**
+     * Decodes every {@code step}-th pixel in both directions of {@code region}
+     * (null for the whole image), clipped to the image. The result is
+     * ceil(width / step) x ceil(height / step).
+     */
+    static BufferedImage read(ImageReader reader, Rectangle region, int step) throws IOException {
+        if (step < 1)
+            throw new IllegalArgumentException("Subsampling step must be positive: " + step);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+            Rectangle r = region.intersection(new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)));
+            if (r.isEmpty())
+                throw new IOException("Region " + region.x + "," + region.y + "," + region.width + ","
+                        + region.height + " lies outside the image");
+            param.setSourceRegion(r);
+        }
+        if (step > 1)
+            param.setSourceSubsampling(step, step, 0, 0);
+
+        Thread caller = Thread.currentThread();
+        IIOReadProgressListener abortOnInterrupt = new ProgressAdapter() {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                if (caller.isInterrupted())
+                    source.abort();
+            }
+        };
+        reader.addIIOReadProgressListener(abortOnInterrupt);
+        try {
+            BufferedImage img = reader.read(0, param);
+            Cancellation.check(); // an aborted read returns a partial image
+            return Rasters.toIntArgb(img);
+        } finally {
+            reader.removeIIOReadProgressListener(abortOnInterrupt);
+        }
+    }
+
+    // IIOReadProgressListener with every callback empty.
+    private static class ProgressAdapter implements IIOReadProgressListener {
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
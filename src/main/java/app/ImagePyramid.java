@@ -0,0 +1,177 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mipmap pyramid of an image: level k is the base reduced by 2^k in each
+ * direction (rounded up), each level a 2x2 box filter of the one below. The
+ * filter weights colour by alpha, so the hidden colour under transparent
+ * pixels does not bleed into the edges of a cut-out.
+ *
+ * Levels are built on first use. Replacing the base with an image of the same
+ * size recomputes, in every level built so far, only the block covering the
+ * rectangle the caller reports as changed (worked out off the FX thread, e.g.
+ * with {@link #changedBounds}); the level images are updated in place, so they
+ * must not be handed to other threads. Methods are synchronized for the
+ * occasional reader on a job thread.
+ */
+final class ImagePyramid {
+
+    private BufferedImage base;
+    private final List<BufferedImage> levels = new ArrayList<>(); // levels.get(0) == base
+
+    ImagePyramid() {
+    }
+
+    ImagePyramid(BufferedImage base) {
+        setBase(base);
+    }
+
+    /**
+     * Deepest level whose size still covers an image of {@code w} x {@code h}
+     * fitted into a {@code viewW} x {@code viewH} view, i.e. the level closest to
+     * the on-screen size that does not need enlarging.
+     */
+    static int levelFor(int w, int h, int viewW, int viewH) {
+        double reduction = Math.max((double) w / viewW, (double) h / viewH);
+        int k = 0;
+        while (reduction >= 2) {
+            reduction /= 2;
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * {@code r} in the pixel grid of level {@code k}: every level pixel that
+     * covers part of it, clipped to the {@code levelW} x {@code levelH} level.
+     */
+    static Rectangle scaleDown(Rectangle r, int k, int levelW, int levelH) {
+        int step = 1 << k;
+        int x0 = r.x >> k, y0 = r.y >> k;
+        int x1 = (r.x + r.width + step - 1) >> k, y1 = (r.y + r.height + step - 1) >> k;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0).intersection(new Rectangle(0, 0, levelW, levelH));
+    }
+
+    synchronized BufferedImage base() {
+        return base;
+    }
+
+    /**
+     * Makes {@code img} level 0, recomputing every level built so far in full; no
+     * comparison with the previous base. Use {@link #setBase(BufferedImage, Rectangle)}
+     * when the changed part is known.
+     */
+    synchronized void setBase(BufferedImage img) {
+        setBase(img, new Rectangle(0, 0, img.getWidth(), img.getHeight()));
+    }
+
+    /**
+     * Makes {@code img} level 0 when it differs from the current base only inside
+     * {@code changed} (null: nothing changed), recomputing just that block of the
+     * levels built so far; e.g. with {@link #changedBounds} computed on another
+     * thread.
+     */
+    synchronized void setBase(BufferedImage img, Rectangle changed) {
+        BufferedImage old = base;
+        base = img;
+        if (old == null || old.getWidth() != img.getWidth() || old.getHeight() != img.getHeight()) {
+            levels.clear();
+            levels.add(img);
+            return;
+        }
+        levels.set(0, img);
+        Rectangle dirty = changed;
+        for (int k = 1; k < levels.size() && dirty != null; k++) {
+            BufferedImage level = levels.get(k);
+            dirty = scaleDown(dirty, 1, level.getWidth(), level.getHeight());
+            reduce(levels.get(k - 1), level, dirty);
+        }
+    }
+
+    /** Level {@code k}, clamped to the 1x1 level at the top; level 0 is the base itself. */
+    synchronized BufferedImage level(int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("Negative pyramid level: " + k);
+        while (levels.size() <= k) {
+            BufferedImage below = levels.get(levels.size() - 1);
+            if (below.getWidth() == 1 && below.getHeight() == 1)
+                return below;
+            BufferedImage level = new BufferedImage((below.getWidth() + 1) / 2, (below.getHeight() + 1) / 2,
+                    BufferedImage.TYPE_INT_ARGB);
+            reduce(below, level, new Rectangle(0, 0, level.getWidth(), level.getHeight()));
+            levels.add(level);
+        }
+        return levels.get(k);
+    }
+
+    /**
+     * Bounding box of the pixels in which two images of the same size differ, or
+     * null if there are none. Only reads, so it can run off the FX thread.
+     */
+    static Rectangle changedBounds(BufferedImage before, BufferedImage after) {
+        if (before == after)
+            return null;
+        int w = after.getWidth(), h = after.getHeight();
+        int[] a = Rasters.argbPixels(before), b = Rasters.argbPixels(after);
+        int x0 = w, y0 = h, x1 = -1, y1 = -1;
+        for (int y = 0; y < h; y++) {
+            int row = y * w, first = -1, last = -1;
+            for (int x = 0; x < w; x++) {
+                if (a[row + x] != b[row + x]) {
+                    if (first < 0)
+                        first = x;
+                    last = x;
+                }
+            }
+            if (first >= 0) {
+                x0 = Math.min(x0, first);
+                x1 = Math.max(x1, last);
+                y0 = Math.min(y0, y);
+                y1 = y;
+            }
+        }
+        return x1 < 0 ? null : new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+
+    // Recomputes region r of level `up` (TYPE_INT_ARGB, owned by this pyramid) from `below`.
+    private static void reduce(BufferedImage below, BufferedImage up, Rectangle r) {
+        int bw = below.getWidth(), bh = below.getHeight(), uw = up.getWidth();
+        int[] src = Rasters.argbPixels(below);
+        int[] dst = Rasters.argbPixels(up);
+        for (int y = r.y; y < r.y + r.height; y++) {
+            Cancellation.check();
+            int sy0 = 2 * y, sy1 = Math.min(sy0 + 1, bh - 1);
+            for (int x = r.x; x < r.x + r.width; x++) {
+                int sx0 = 2 * x, sx1 = Math.min(sx0 + 1, bw - 1);
+                dst[y * uw + x] = average(src[sy0 * bw + sx0], src[sy0 * bw + sx1], src[sy1 * bw + sx0],
+                        src[sy1 * bw + sx1]);
+            }
+        }
+    }
+
+    // Alpha-weighted mean of four ARGB pixels (edge pixels repeat the last row/column).
+    private static int average(int p, int q, int s, int t) {
+        int pa = p >>> 24, qa = q >>> 24, sa = s >>> 24, ta = t >>> 24;
+        int a = pa + qa + sa + ta;
+        if (a == 0)
+            return 0;
+        if (a == 4 * 255) // opaque: plain mean
+            return 0xff000000 | mean(p, q, s, t, 16) << 16 | mean(p, q, s, t, 8) << 8 | mean(p, q, s, t, 0);
+        int half = a / 2;
+        int r = (((p >> 16) & 0xff) * pa + ((q >> 16) & 0xff) * qa + ((s >> 16) & 0xff) * sa
+                + ((t >> 16) & 0xff) * ta + half) / a;
+        int g = (((p >> 8) & 0xff) * pa + ((q >> 8) & 0xff) * qa + ((s >> 8) & 0xff) * sa
+                + ((t >> 8) & 0xff) * ta + half) / a;
+        int b = ((p & 0xff) * pa + (q & 0xff) * qa + (s & 0xff) * sa + (t & 0xff) * ta + half) / a;
+        return (a + 2) / 4 << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int mean(int p, int q, int s, int t, int shift) {
+        return (((p >> shift) & 0xff) + ((q >> shift) & 0xff) + ((s >> shift) & 0xff) + ((t >> shift) & 0xff) + 2)
+                >> 2;
+    }
+}
@@ -0,0 +1,28 @@
+package app;
+
+import java.util.Arrays;
+
+/** Minimal growable list of primitive ints. */
+final class IntList {
+
+    private int[] data;
+    private int size;
+
+    IntList() {
+        data = new int[16];
+    }
+
+    void add(int v) {
+        if (size == data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        data[size++] = v;
+    }
+
+    int get(int i) {
+        return data[i];
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,92 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scaling report for the parallel ComponentLabeler: labels one synthetic image
+ * with 1, 2, 4, ... up to N worker threads and prints time, speedup and
+ * parallel efficiency (speedup / threads) against the sequential labeler.
+ *
+ * Usage: LabelingScaling [megapixels=200] [maxThreads=cores] [tolerance=30]
+ *
+ * The image (4 bytes/pixel) and the label array (4 bytes/pixel) are both held
+ * in memory, so a 200 MP run needs a heap of about 2 GB.
+ */
+final class LabelingScaling {
+
+    private static final int RUNS = 3;
+
+    private LabelingScaling() {
+    }
+
+    public static void main(String[] args) {
+        int megapixels = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int tol = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        int w = (int) Math.sqrt(megapixels * 1_000_000.0 * 4 / 3);
+        int h = (int) (megapixels * 1_000_000L / w);
+        BufferedImage img = syntheticImage(w, h);
+        Rectangle roi = new Rectangle(0, 0, w, h);
+        System.out.printf("%d x %d (%.1f MP), tolerance %d, %d cores%n", w, h, w * (double) h / 1e6, tol,
+                Runtime.getRuntime().availableProcessors());
+
+        double sequential = bestOf(() -> ComponentLabeler.label(img, roi, tol));
+        System.out.printf("%-10s %10s %8s %10s%n", "threads", "ms", "speedup", "efficiency");
+        System.out.printf("%-10s %10.0f %8s %10s%n", "seq", sequential, "1.00", "-");
+
+        List<Integer> counts = new ArrayList<>();
+        for (int t = 1; t < maxThreads; t *= 2)
+            counts.add(t);
+        counts.add(maxThreads);
+        for (int threads : counts) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                double ms = bestOf(() -> ComponentLabeler.label(img, roi, tol, pool));
+                double speedup = sequential / ms;
+                System.out.printf("%-10d %10.0f %8.2f %9.0f%%%n", threads, ms, speedup, 100 * speedup / threads);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Best wall time in ms over RUNS runs, after one warm-up run.
+    private static double bestOf(Runnable run) {
+        run.run();
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long t0 = System.nanoTime();
+            run.run();
+            best = Math.min(best, (System.nanoTime() - t0) / 1e6);
+        }
+        return best;
+    }
+
+    // Gradient backdrop with mild noise and a few thousand flat rectangles, so the
+    // labeling sees both large components crossing many strips and small ones.
+    private static BufferedImage syntheticImage(int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] px = Rasters.argbPixels(img);
+        Random rnd = new Random(42);
+        for (int y = 0; y < h; y++) {
+            int g = 64 + 128 * y / h;
+            for (int x = 0; x < w; x++)
+                px[y * w + x] = 0xFF000000 | g << 16 | g << 8 | (g + rnd.nextInt(8));
+        }
+        for (int i = 0; i < 4000; i++) {
+            int rw = 8 + rnd.nextInt(w / 40), rh = 8 + rnd.nextInt(h / 40);
+            int x0 = rnd.nextInt(w - rw), y0 = rnd.nextInt(h - rh);
+            int c = 0xFF000000 | rnd.nextInt(0x1000000);
+            for (int y = y0; y < y0 + rh; y++)
+                Arrays.fill(px, y * w + x0, y * w + x0 + rw, c);
+        }
+        return img;
+    }
+}
@@ -0,0 +1,51 @@
+package app;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Re-runs the last simple crop / seed crop at a new tolerance, for the live
+ * tolerance preview.
+ *
+ * The seeds, reference colour and ROI of the operation are fixed, so the session
+ * works off their SeedDistanceMap: the first update builds (or reuses a cached)
+ * map, and every tolerance after that is a threshold pass plus compose, with no
+ * flood-fill traversal at all.
+ */
+final class LiveFill {
+
+    private final BufferedImage src;
+    private final Rectangle roi;
+    private final int[] seedsX, seedsY;
+    private final int ref;
+    private final boolean keepRegion; // true: region is foreground, false: background
+
+    private LiveFill(BufferedImage src, Rectangle roi, int[] seedsX, int[] seedsY, int ref, boolean keepRegion) {
+        this.src = src;
+        this.roi = roi;
+        this.seedsX = seedsX;
+        this.seedsY = seedsY;
+        this.ref = ref;
+        this.keepRegion = keepRegion;
+    }
+
+    /** Session for simple crop: background fill from the ROI corners. */
+    static LiveFill background(BufferedImage src, Rectangle roi, Color bg) {
+        int[][] corners = FloodFill.cornerSeeds(roi);
+        return new LiveFill(src, roi, corners[0], corners[1], bg.getRGB(), false);
+    }
+
+    /** Session for seed crop: foreground fill from (sx, sy), which must lie in the ROI. */
+    static LiveFill foreground(BufferedImage src, Rectangle roi, int sx, int sy) {
+        return new LiveFill(src, roi, new int[] { sx }, new int[] { sy }, src.getRGB(sx, sy), true);
+    }
+
+    /** Recomputes the region for {@code tol}; the result is a tiled version of the source. */
+    Cutout update(int tol) {
+        SeedDistanceMap map = SeedDistanceMap.of(src, roi, seedsX, seedsY, ref);
+        BitMask region = map.threshold(tol);
+        BitMask bg = keepRegion ? region.invert(roi) : region;
+        return new Cutout(Compositor.composeTransparent(TiledImage.wrap(src), bg, roi), bg);
+    }
+}
@@ -0,0 +1,127 @@
+package app;
+
+import javafx.concurrent.Task;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs image operations on a background worker thread instead of the JavaFX
+ * Application Thread, with progress shown in a ProgressBar/Label pair.
+ *
+ * Jobs run one at a time, in submission order. Submitting a new job cancels the
+ * previous cancellable one (e.g. a new seed click while the last fill is still
+ * running): the worker is interrupted and the long-running kernels bail out at
+ * their next {@link Cancellation#check()}. Results and errors are delivered on
+ * the FX thread, so callbacks may touch the UI and editor state directly.
+ */
+final class OperationRunner {
+
+    /** Work executed off the FX thread. */
+    interface Job<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    /** Progress reporting from inside a job; a negative {@code done} means indeterminate. */
+    interface Progress {
+        void update(double done, double total);
+    }
+
+    /** Longest shutdown() waits for uninterruptible jobs, e.g. a save of a very large image. */
+    static final long SHUTDOWN_WAIT_SECONDS = 60;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "image-operations");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ProgressBar progressBar;
+    private final Label statusLabel;
+    private Task<?> current; // last cancellable job, FX thread only
+    private Task<?> shown; // job the progress widgets are bound to
+
+    OperationRunner(ProgressBar progressBar, Label statusLabel) {
+        this.progressBar = progressBar;
+        this.statusLabel = statusLabel;
+        progressBar.setVisible(false);
+    }
+
+    /**
+     * Runs {@code job} in the background, cancelling the previous cancellable job.
+     * Must be called on the FX thread.
+     */
+    <T> void submit(String label, Job<T> job, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        if (current != null)
+            current.cancel();
+        current = start(label, job, onSuccess, onFailure);
+    }
+
+    /**
+     * Runs {@code job} in the background without superseding or being superseded
+     * by other jobs, for work that must not stop halfway (e.g. writing a file).
+     * Must be called on the FX thread.
+     */
+    <T> void submitUninterruptible(String label, Job<T> job, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        start(label, job, onSuccess, onFailure);
+    }
+
+    /**
+     * Cancels the running cancellable job and lets the uninterruptible ones
+     * finish, waiting at most {@link #SHUTDOWN_WAIT_SECONDS}, so that a save in
+     * progress at exit is not cut off. Must be called on the FX thread.
+     */
+    void shutdown() {
+        if (current != null)
+            current.cancel();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> Task<T> start(String label, Job<T> job, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        Task<T> task = new Task<>() {
+            @Override
+            protected T call() throws Exception {
+                updateMessage(label + "...");
+                updateProgress(-1, 1);
+                return job.run(this::updateProgress);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            finished(task);
+            onSuccess.accept(task.getValue());
+        });
+        task.setOnFailed(e -> {
+            finished(task);
+            onFailure.accept(task.getException());
+        });
+        task.setOnCancelled(e -> finished(task));
+
+        shown = task;
+        progressBar.progressProperty().bind(task.progressProperty());
+        statusLabel.textProperty().bind(task.messageProperty());
+        progressBar.setVisible(true);
+        executor.execute(task);
+        return task;
+    }
+
+    private void finished(Task<?> task) {
+        if (task == current)
+            current = null;
+        if (task != shown)
+            return; // a newer job owns the progress widgets
+        shown = null;
+        progressBar.progressProperty().unbind();
+        statusLabel.textProperty().unbind();
+        progressBar.setProgress(0);
+        progressBar.setVisible(false);
+        statusLabel.setText("");
+    }
+}
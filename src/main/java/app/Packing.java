@@ -0,0 +1,86 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Fast (BEST_SPEED) deflate of int and long arrays, for history data that sits
+ * in memory for a long time but is read back rarely. Pixel tiles of local edits
+ * and background masks are mostly long runs and shrink to a few percent.
+ */
+final class Packing {
+
+    private Packing() {
+    }
+
+    static byte[] packInts(int[] values) {
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * 4);
+        bytes.asIntBuffer().put(values);
+        return deflate(bytes.array());
+    }
+
+    static int[] unpackInts(byte[] packed, int count) {
+        return unpackInts(packed, new int[count], count);
+    }
+
+    /** Unpacks {@code count} values into the start of {@code into}. */
+    static int[] unpackInts(byte[] packed, int[] into, int count) {
+        ByteBuffer.wrap(inflate(packed, count * 4)).asIntBuffer().get(into, 0, count);
+        return into;
+    }
+
+    static byte[] packLongs(long[] values) {
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * 8);
+        bytes.asLongBuffer().put(values);
+        return deflate(bytes.array());
+    }
+
+    static long[] unpackLongs(byte[] packed, int count) {
+        long[] values = new long[count];
+        ByteBuffer.wrap(inflate(packed, count * 8)).asLongBuffer().get(values);
+        return values;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, raw.length / 8)];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] packed, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            byte[] raw = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int k = inflater.inflate(raw, n, length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break; // truncated
+                n += k;
+            }
+            if (n != length)
+                throw new IllegalStateException("Packed data holds " + n + " bytes, expected " + length);
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt packed data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package app;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG writer that filters and deflates blocks of rows in parallel (as pigz does
+ * for gzip) and joins them into one standard zlib stream.
+ *
+ * Each block is compressed by its own raw Deflater, primed with the last 32 KB
+ * of the preceding block as preset dictionary so matches still reach across the
+ * seam, and ended with a sync flush so the next block's output can simply be
+ * appended. The zlib Adler-32 trailer is combined from the per-block checksums.
+ * The output is RGBA (RGB if the image has no alpha), 8 bits per channel,
+ * non-interlaced, and reads back pixel-identical with any decoder (except
+ * for the colour of transparent pixels when they are cleared, see write).
+ * Filters are chosen adaptively per row.
+ */
+final class PngEncoder {
+
+    /** zlib's default trade-off between size and speed. */
+    static final int DEFAULT_LEVEL = 6;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int BLOCK_BYTES = 1 << 20; // filtered bytes per parallel block
+    private static final int WINDOW = 32 * 1024;    // deflate window, the most a dictionary can help
+    private static final int ADLER_BASE = 65521;
+    private static final int FILTER_NONE = 0, FILTER_SUB = 1, FILTER_UP = 2, FILTER_AVERAGE = 3, FILTER_PAETH = 4;
+
+    private final int[] px;
+    private final int w, h, bpp, rowBytes, level;
+    private final boolean clearTransparent;
+
+    private PngEncoder(BufferedImage img, int level, boolean clearTransparent) {
+        if (level < 0 || level > 9)
+            throw new IllegalArgumentException("PNG compression level must be in 0..9: " + level);
+        this.px = Rasters.argbPixels(img);
+        this.w = img.getWidth();
+        this.h = img.getHeight();
+        this.bpp = img.getColorModel().hasAlpha() ? 4 : 3;
+        this.rowBytes = 1 + w * bpp; // filter type byte + samples
+        this.level = level;
+        this.clearTransparent = clearTransparent;
+    }
+
+    /**
+     * Writes {@code img} to {@code file}; blocks run on {@code pool}, or the caller
+     * if null. With {@code clearTransparent}, pixels of alpha 0 are written as
+     * transparent black: invisible either way, but the colour the background had
+     * under them no longer has to be stored, so cut-outs shrink considerably.
+     */
+    static void write(BufferedImage img, Path file, int level, boolean clearTransparent, ForkJoinPool pool)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            write(img, out, level, clearTransparent, pool);
+        }
+    }
+
+    /** Writes {@code img} as PNG to {@code out}, which is left open. */
+    static void write(BufferedImage img, OutputStream out, int level, boolean clearTransparent, ForkJoinPool pool)
+            throws IOException {
+        new PngEncoder(img, level, clearTransparent).encode(out, pool);
+    }
+
+    // Compressed output of rows [y0, y1) and the Adler-32 of their filtered bytes.
+    private record Block(byte[] data, int length, long adler, long rawLength) {
+    }
+
+    private void encode(OutputStream out, ForkJoinPool pool) throws IOException {
+        int rowsPerBlock = Math.max(1, BLOCK_BYTES / rowBytes);
+        int blocks = (h + rowsPerBlock - 1) / rowsPerBlock;
+
+        List<ForkJoinTask<Block>> tasks = new ArrayList<>(blocks);
+        if (pool != null && blocks > 1 && pool.getParallelism() > 1) {
+            for (int b = 0; b < blocks; b++) {
+                int y0 = b * rowsPerBlock, y1 = Math.min(h, y0 + rowsPerBlock);
+                tasks.add(pool.submit(() -> compress(y0, y1)));
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, w);
+        putInt(ihdr, 4, h);
+        ihdr[8] = 8;                          // bit depth
+        ihdr[9] = (byte) (bpp == 4 ? 6 : 2);  // colour type: RGBA / RGB
+        // compression, filter method and interlace all 0
+        chunk(data, "IHDR", ihdr, ihdr.length);
+
+        byte[] header = {0x78, (byte) (level <= 1 ? 0x01 : level <= 5 ? 0x5e : level == 6 ? 0x9c : 0xda)};
+        chunk(data, "IDAT", header, header.length);
+        long adler = 1;
+        for (int b = 0; b < blocks; b++) {
+            Block block;
+            if (tasks.isEmpty()) {
+                int y0 = b * rowsPerBlock;
+                block = compress(y0, Math.min(h, y0 + rowsPerBlock));
+            } else {
+                block = tasks.get(b).join();
+                tasks.set(b, null); // let the block's output go once written
+            }
+            chunk(data, "IDAT", block.data(), block.length());
+            adler = combineAdler(adler, block.adler(), block.rawLength());
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        chunk(data, "IDAT", trailer, trailer.length);
+        chunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    // Filters and deflates rows [y0, y1), primed with the rows just above.
+    private Block compress(int y0, int y1) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (y0 > 0) {
+                int prev = Math.max(0, y0 - (WINDOW + rowBytes - 1) / rowBytes);
+                byte[] before = filterRows(prev, y0);
+                int n = Math.min(WINDOW, before.length);
+                deflater.setDictionary(before, before.length - n, n);
+            }
+            byte[] raw = filterRows(y0, y1);
+            Adler32 adler = new Adler32();
+            adler.update(raw);
+
+            boolean last = y1 == h;
+            deflater.setInput(raw);
+            if (last)
+                deflater.finish();
+            byte[] out = new byte[Math.max(256, raw.length / 4)];
+            int n = 0;
+            while (true) {
+                n += deflater.deflate(out, n, out.length - n, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // a sync flush is complete once it leaves room in the buffer
+                if (last ? deflater.finished() : n < out.length)
+                    break;
+                if (n == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+            }
+            return new Block(out, n, adler.getValue(), raw.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Filtered scanlines of rows [y0, y1), each prefixed with its filter type.
+    private byte[] filterRows(int y0, int y1) {
+        byte[] dst = new byte[(y1 - y0) * rowBytes];
+        byte[] prior = new byte[rowBytes - 1], cur = new byte[rowBytes - 1]; // above row 0: zeros
+        if (y0 > 0)
+            samples(y0 - 1, prior);
+        for (int y = y0, off = 0; y < y1; y++, off += rowBytes) {
+            samples(y, cur);
+            filterRow(cur, prior, dst, off);
+            byte[] t = prior;
+            prior = cur;
+            cur = t;
+        }
+        return dst;
+    }
+
+    // Picks the filter per row as libpng does: the one whose output has the
+    // smallest sum of absolute (signed) bytes. A row equal to the one above, as
+    // in cleared transparent background, is Up (all zeros) without trying the
+    // rest. Level 0 stores the samples unfiltered since nothing is compressed.
+    private void filterRow(byte[] cur, byte[] prior, byte[] dst, int off) {
+        int n = cur.length;
+        if (level == 0) {
+            dst[off] = FILTER_NONE;
+            System.arraycopy(cur, 0, dst, off + 1, n);
+            return;
+        }
+        if (Arrays.equals(cur, prior)) {
+            dst[off] = FILTER_UP; // dst is freshly allocated, the filtered bytes are already 0
+            return;
+        }
+        long[] cost = new long[5]; // indexed by filter type
+        for (int i = 0; i < n; i++) {
+            int x = cur[i] & 0xff, b = prior[i] & 0xff;
+            int a = i >= bpp ? cur[i - bpp] & 0xff : 0, c = i >= bpp ? prior[i - bpp] & 0xff : 0;
+            cost[FILTER_NONE] += Math.abs((byte) x);
+            cost[FILTER_SUB] += Math.abs((byte) (x - a));
+            cost[FILTER_UP] += Math.abs((byte) (x - b));
+            cost[FILTER_AVERAGE] += Math.abs((byte) (x - ((a + b) >>> 1)));
+            cost[FILTER_PAETH] += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+        int filter = FILTER_NONE;
+        for (int f = FILTER_SUB; f <= FILTER_PAETH; f++) {
+            if (cost[f] < cost[filter])
+                filter = f;
+        }
+
+        dst[off++] = (byte) filter;
+        for (int i = 0; i < n; i++) {
+            int x = cur[i] & 0xff, b = prior[i] & 0xff;
+            int a = i >= bpp ? cur[i - bpp] & 0xff : 0;
+            dst[off + i] = (byte) switch (filter) {
+                case FILTER_NONE -> x;
+                case FILTER_SUB -> x - a;
+                case FILTER_UP -> x - b;
+                case FILTER_AVERAGE -> x - ((a + b) >>> 1);
+                default -> x - paeth(a, b, i >= bpp ? prior[i - bpp] & 0xff : 0);
+            };
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc)
+            return a;
+        return pb <= pc ? b : c;
+    }
+
+    // Row y as R, G, B[, A] bytes.
+    private void samples(int y, byte[] dst) {
+        int row = y * w;
+        if (bpp == 4) {
+            for (int x = 0, i = 0; x < w; x++, i += 4) {
+                int argb = px[row + x];
+                if (clearTransparent && argb >>> 24 == 0)
+                    argb = 0;
+                dst[i] = (byte) (argb >>> 16);
+                dst[i + 1] = (byte) (argb >>> 8);
+                dst[i + 2] = (byte) argb;
+                dst[i + 3] = (byte) (argb >>> 24);
+            }
+        } else {
+            for (int x = 0, i = 0; x < w; x++, i += 3) {
+                int argb = px[row + x];
+                dst[i] = (byte) (argb >>> 16);
+                dst[i + 1] = (byte) (argb >>> 8);
+                dst[i + 2] = (byte) argb;
+            }
+        }
+    }
+
+    // Adler-32 of A followed by B, from adler(A), adler(B) and B's length (zlib's adler32_combine).
+    static long combineAdler(long adler1, long adler2, long len2) {
+        long rem = len2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = rem * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum2 >= 2L * ADLER_BASE)
+            sum2 -= 2L * ADLER_BASE;
+        if (sum2 >= ADLER_BASE)
+            sum2 -= ADLER_BASE;
+        return sum2 << 16 | sum1;
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,245 @@
+package app;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Scanline polygon fill with an active edge table.
+ *
+ * Only the rows and columns of the polygon's bounding box (clipped to the image)
+ * are touched: for each row the crossings of the active edges are sorted and the
+ * spans between them are written as whole mask spans, so the cost is
+ * O(bbox rows * active edges + filled pixels) instead of a Polygon.contains test
+ * per image pixel.
+ *
+ * Pixel (x, y) is sampled at its integer coordinates with half-open edges and the
+ * crossing arithmetic of java.awt.Polygon.contains, so fill() marks exactly the
+ * pixels Polygon.contains(x, y) accepts (left and top boundaries inside, right and
+ * bottom ones outside).
+ */
+final class PolygonRasterizer {
+
+    /** Anti-aliased coverage (0..255) of the pixels in {@code bounds}, row-major. */
+    record Coverage(Rectangle bounds, byte[] alpha) {
+    }
+
+    private static final int SUBSAMPLES = 4; // sub-scanlines per pixel row for coverage
+
+    private PolygonRasterizer() {
+    }
+
+    /**
+     * Marks the pixels inside the polygon (xs[i], ys[i]), i < n, in a width x height
+     * mask. {@code evenOdd} selects the even-odd rule, otherwise non-zero winding.
+     */
+    static BitMask fill(int[] xs, int[] ys, int n, int width, int height, boolean evenOdd) {
+        BitMask mask = new BitMask(width, height);
+        if (n < 3)
+            return mask;
+        double[] dx = new double[n], dy = new double[n];
+        for (int i = 0; i < n; i++) {
+            dx[i] = xs[i];
+            dy[i] = ys[i];
+        }
+        EdgeTable edges = new EdgeTable(dx, dy, n);
+        int y0 = Math.max(0, (int) Math.ceil(edges.minY));
+        int y1 = Math.min(height - 1, (int) Math.ceil(edges.maxY) - 1);
+        for (int y = y0; y <= y1; y++) {
+            Cancellation.check();
+            int count = edges.crossings(y, evenOdd, true);
+            for (int k = 0; k + 1 < count; k += 2) {
+                // crossings are integer thresholds here: pixels with xa <= x < xb
+                int from = Math.max(0, (int) edges.xs[k]);
+                int to = Math.min(width - 1, (int) edges.xs[k + 1] - 1);
+                if (from <= to)
+                    mask.setSpan(from, to, y);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Anti-aliased coverage of a polygon with sub-pixel vertices, for soft lasso
+     * edges. Each pixel row is sampled on SUBSAMPLES sub-scanlines and the spans
+     * are accumulated with exact horizontal coverage. Returns null if the polygon
+     * misses the image.
+     */
+    static Coverage coverage(double[] xs, double[] ys, int n, int width, int height, boolean evenOdd) {
+        if (n < 3)
+            return null;
+        EdgeTable edges = new EdgeTable(xs, ys, n);
+        int bx0 = Math.max(0, (int) Math.floor(edges.minX));
+        int by0 = Math.max(0, (int) Math.floor(edges.minY));
+        int bx1 = Math.min(width - 1, (int) Math.ceil(edges.maxX));
+        int by1 = Math.min(height - 1, (int) Math.ceil(edges.maxY));
+        if (bx0 > bx1 || by0 > by1)
+            return null;
+        int bw = bx1 - bx0 + 1;
+        Rectangle bounds = new Rectangle(bx0, by0, bw, by1 - by0 + 1);
+        byte[] alpha = new byte[bounds.width * bounds.height];
+        float[] acc = new float[bw + 1];
+
+        for (int y = by0; y <= by1; y++) {
+            Cancellation.check();
+            Arrays.fill(acc, 0f);
+            for (int s = 0; s < SUBSAMPLES; s++) {
+                int count = edges.crossings(y + (s + 0.5) / SUBSAMPLES, evenOdd, false);
+                for (int k = 0; k + 1 < count; k += 2)
+                    accumulate(acc, edges.xs[k] - bx0, edges.xs[k + 1] - bx0, bw);
+            }
+            int row = (y - by0) * bw;
+            for (int x = 0; x < bw; x++) {
+                int a = Math.round(acc[x] * 255f / SUBSAMPLES);
+                alpha[row + x] = (byte) Math.min(255, a);
+            }
+        }
+        return new Coverage(bounds, alpha);
+    }
+
+    // Add the horizontal coverage of span [a, b) (bbox-local) to acc.
+    private static void accumulate(float[] acc, double a, double b, int bw) {
+        a = Math.max(0, a);
+        b = Math.min(bw, b);
+        if (a >= b)
+            return;
+        int ia = (int) a, ib = (int) b;
+        if (ia == ib) {
+            acc[ia] += (float) (b - a);
+            return;
+        }
+        acc[ia] += (float) (ia + 1 - a);
+        for (int x = ia + 1; x < ib; x++)
+            acc[x] += 1f;
+        if (ib < bw)
+            acc[ib] += (float) (b - ib);
+    }
+
+    /**
+     * Polygon edges sorted by top y; crossings() walks scanlines top to bottom and
+     * keeps only the edges spanning the current one active.
+     */
+    private static final class EdgeTable {
+        final double minX, minY, maxX, maxY;
+        private final double[] top, bottom, xAtTop, xAtBottom; // per edge, sorted by top
+        private final int[] dir; // +1 downwards, -1 upwards
+        private final int[] active;
+        private int activeCount, next;
+        private double lastY = Double.NEGATIVE_INFINITY;
+        double[] xs = new double[16]; // crossings of the last scanline, sorted
+        private int[] ws = new int[16];
+
+        EdgeTable(double[] px, double[] py, int n) {
+            double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+            Integer[] order = new Integer[n];
+            int m = 0;
+            double[] t = new double[n], b = new double[n], xt = new double[n], xb = new double[n];
+            int[] d = new int[n];
+            for (int i = 0; i < n; i++) {
+                x0 = Math.min(x0, px[i]);
+                x1 = Math.max(x1, px[i]);
+                y0 = Math.min(y0, py[i]);
+                y1 = Math.max(y1, py[i]);
+                int j = (i + 1) % n;
+                if (py[i] == py[j])
+                    continue; // horizontal edges never cross a scanline
+                boolean down = py[i] < py[j];
+                int a = down ? i : j, c = down ? j : i;
+                t[m] = py[a];
+                b[m] = py[c];
+                xt[m] = px[a];
+                xb[m] = px[c];
+                d[m] = down ? 1 : -1;
+                order[m] = m;
+                m++;
+            }
+            Arrays.sort(order, 0, m, (p, q) -> Double.compare(t[p], t[q]));
+            top = new double[m];
+            bottom = new double[m];
+            xAtTop = new double[m];
+            xAtBottom = new double[m];
+            dir = new int[m];
+            for (int k = 0; k < m; k++) {
+                int e = order[k];
+                top[k] = t[e];
+                bottom[k] = b[e];
+                xAtTop[k] = xt[e];
+                xAtBottom[k] = xb[e];
+                dir[k] = d[e];
+            }
+            active = new int[m];
+            minX = x0;
+            minY = y0;
+            maxX = x1;
+            maxY = y1;
+        }
+
+        /**
+         * Computes the span boundaries at scanline y into xs (pairs of enter/leave
+         * positions) and returns their count. Scanlines must be requested in
+         * non-decreasing y. With {@code pixelThresholds} each boundary is rounded the
+         * way Polygon.contains decides it: the first integer x the crossing no
+         * longer counts for.
+         */
+        int crossings(double y, boolean evenOdd, boolean pixelThresholds) {
+            if (y < lastY)
+                throw new IllegalStateException("Scanlines must be visited top to bottom");
+            lastY = y;
+            while (next < top.length && top[next] <= y)
+                active[activeCount++] = next++;
+
+            int count = 0;
+            for (int k = 0; k < activeCount;) {
+                int e = active[k];
+                if (bottom[e] <= y) {
+                    active[k] = active[--activeCount]; // edge finished (half-open at the bottom)
+                    continue;
+                }
+                if (count == xs.length) {
+                    xs = Arrays.copyOf(xs, count * 2);
+                    ws = Arrays.copyOf(ws, count * 2);
+                }
+                double tx = xAtTop[e], bx = xAtBottom[e];
+                // same expression and operation order as Polygon.contains
+                double d = (y - top[e]) / (bottom[e] - top[e]) * (bx - tx);
+                if (pixelThresholds) {
+                    double t = tx + Math.ceil(d);
+                    xs[count] = Math.max(Math.min(tx, bx), Math.min(Math.max(tx, bx), t));
+                } else {
+                    xs[count] = tx + d;
+                }
+                ws[count] = dir[e];
+                count++;
+                k++;
+            }
+            sortByX(count);
+            if (evenOdd)
+                return count;
+
+            // non-zero: keep only the crossings where the winding enters or leaves zero
+            int out = 0, winding = 0;
+            for (int k = 0; k < count; k++) {
+                int before = winding;
+                winding += ws[k];
+                if (before == 0 || winding == 0)
+                    xs[out++] = xs[k];
+            }
+            return out;
+        }
+
+        // insertion sort: crossings are few and nearly sorted from row to row
+        private void sortByX(int count) {
+            for (int i = 1; i < count; i++) {
+                double x = xs[i];
+                int w = ws[i];
+                int j = i - 1;
+                while (j >= 0 && xs[j] > x) {
+                    xs[j + 1] = xs[j];
+                    ws[j + 1] = ws[j];
+                    j--;
+                }
+                xs[j + 1] = x;
+                ws[j + 1] = w;
+            }
+        }
+    }
+}
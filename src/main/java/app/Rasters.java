@@ -0,0 +1,61 @@
+package app;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Helpers for reading BufferedImage pixels as a packed, row-major int array
+ * (index = y * width + x) without going through getRGB per pixel.
+ */
+final class Rasters {
+
+    private Rasters() {
+    }
+
+    /**
+     * Returns the pixels of {@code img} as packed 0xAARRGGBB ints, row-major with
+     * stride = width. For plain TYPE_INT_ARGB images this is the raster's own
+     * backing array (no copy, do not modify); any other layout is converted once
+     * with a bulk getRGB.
+     */
+    static int[] argbPixels(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        int[] data = backingArray(img);
+        if (data != null)
+            return data;
+        return img.getRGB(0, 0, w, h, null, 0, w);
+    }
+
+    /**
+     * Returns {@code img} itself if argbPixels can alias its raster, otherwise a
+     * TYPE_INT_ARGB copy. Loaded images are normalised with this once so that
+     * later operations never pay for a conversion.
+     */
+    static BufferedImage toIntArgb(BufferedImage img) {
+        if (backingArray(img) != null)
+            return img;
+        int w = img.getWidth(), h = img.getHeight();
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        out.setRGB(0, 0, w, h, img.getRGB(0, 0, w, h, null, 0, w), 0, w);
+        return out;
+    }
+
+    // Backing int[] of an unshared, zero-offset int-packed raster, or null if the
+    // layout does not match (sub-images, other pixel formats, premultiplied alpha).
+    private static int[] backingArray(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_INT_ARGB)
+            return null;
+        WritableRaster raster = img.getRaster();
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0
+                || raster.getSampleModelTranslateY() != 0)
+            return null;
+        if (!(raster.getDataBuffer() instanceof DataBufferInt db) || db.getOffset() != 0)
+            return null;
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm)
+                || sm.getScanlineStride() != img.getWidth())
+            return null;
+        return db.getData();
+    }
+}
@@ -0,0 +1,175 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Minimax path distance from a set of seeds, over a region of interest.
+ *
+ * For each ROI pixel p the map holds the smallest tolerance at which a flood fill
+ * from the seeds (same reference colour, same L1 metric as FloodFill) would reach
+ * p: the minimum over all 4-connected paths from a seed to p of the largest
+ * colour distance along the path. The fill result at any tolerance t is then
+ * exactly {p : map[p] <= t}, so changing the tolerance is one threshold pass
+ * instead of a new traversal.
+ *
+ * Distances are 0..765, so the map is built with a bucket queue (Dial's
+ * algorithm) in O(pixels), and recently used maps are kept in an LRU cache keyed
+ * by image, ROI, seeds and reference colour.
+ */
+final class SeedDistanceMap {
+
+    private static final int UNREACHED = Character.MAX_VALUE;
+    private static final int MAX_DIST = 3 * 255;
+    private static final long CACHE_BUDGET_BYTES = 256L << 20;
+
+    private static final Map<Key, SeedDistanceMap> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes;
+
+    private final Rectangle roi;
+    private final int imageWidth, imageHeight;
+    private final char[] dist; // ROI-local, row-major
+
+    private SeedDistanceMap(Rectangle roi, int imageWidth, int imageHeight, char[] dist) {
+        this.roi = roi;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.dist = dist;
+    }
+
+    /**
+     * Returns the map for these seeds, computing it on a cache miss. Seeds outside
+     * {@code roi} are ignored; {@code roi} must lie within the image.
+     */
+    static SeedDistanceMap of(BufferedImage src, Rectangle roi, int[] xs, int[] ys, int ref) {
+        Key key = new Key(src, new Rectangle(roi), xs.clone(), ys.clone(), ref & 0x00FFFFFF);
+        synchronized (CACHE) {
+            SeedDistanceMap hit = CACHE.get(key);
+            if (hit != null)
+                return hit;
+        }
+        SeedDistanceMap map = compute(src, roi, xs, ys, ref);
+        synchronized (CACHE) {
+            if (CACHE.put(key, map) == null)
+                cachedBytes += map.bytes();
+            Iterator<SeedDistanceMap> it = CACHE.values().iterator();
+            while (cachedBytes > CACHE_BUDGET_BYTES && CACHE.size() > 1) {
+                cachedBytes -= it.next().bytes();
+                it.remove();
+            }
+        }
+        return map;
+    }
+
+    /** Drops all cached maps, e.g. when a new image is opened. */
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /** Image-sized mask of the pixels a fill at {@code tol} would mark. */
+    BitMask threshold(int tol) {
+        BitMask mask = new BitMask(imageWidth, imageHeight);
+        for (int y = 0, i = 0; y < roi.height; y++) {
+            Cancellation.check();
+            for (int x = 0; x < roi.width; x++, i++) {
+                if (dist[i] <= tol)
+                    mask.set(roi.x + x, roi.y + y);
+            }
+        }
+        return mask;
+    }
+
+    private long bytes() {
+        return 2L * dist.length;
+    }
+
+    private static SeedDistanceMap compute(BufferedImage src, Rectangle roi, int[] xs, int[] ys, int ref) {
+        int w = src.getWidth();
+        int rw = roi.width, rh = roi.height;
+        int[] px = Rasters.argbPixels(src);
+
+        // colour distance of every ROI pixel to the reference
+        char[] local = new char[rw * rh];
+        for (int y = 0, i = 0; y < rh; y++) {
+            Cancellation.check();
+            int row = (roi.y + y) * w + roi.x;
+            for (int x = 0; x < rw; x++, i++)
+                local[i] = (char) FloodFill.distance(px[row + x], ref);
+        }
+
+        char[] best = new char[rw * rh];
+        Arrays.fill(best, (char) UNREACHED);
+        IntList[] buckets = new IntList[MAX_DIST + 1];
+        for (int i = 0; i < xs.length; i++) {
+            if (!roi.contains(xs[i], ys[i]))
+                continue;
+            int idx = (ys[i] - roi.y) * rw + (xs[i] - roi.x);
+            if (local[idx] < best[idx]) {
+                best[idx] = local[idx];
+                bucket(buckets, local[idx]).add(idx);
+            }
+        }
+
+        // Values only grow along a path, so buckets are drained in increasing order
+        // and a bucket may receive new entries while it is being drained.
+        for (int level = 0; level <= MAX_DIST; level++) {
+            IntList b = buckets[level];
+            if (b == null)
+                continue;
+            for (int k = 0; k < b.size(); k++) {
+                if ((k & 0xFFF) == 0)
+                    Cancellation.check(); // one bucket can hold most of the ROI
+                int idx = b.get(k);
+                if (best[idx] != level)
+                    continue; // stale entry, improved after it was queued
+                int x = idx % rw, y = idx / rw;
+                if (x > 0)
+                    relax(idx - 1, level, local, best, buckets);
+                if (x < rw - 1)
+                    relax(idx + 1, level, local, best, buckets);
+                if (y > 0)
+                    relax(idx - rw, level, local, best, buckets);
+                if (y < rh - 1)
+                    relax(idx + rw, level, local, best, buckets);
+            }
+            buckets[level] = null;
+        }
+        return new SeedDistanceMap(new Rectangle(roi), w, src.getHeight(), best);
+    }
+
+    private static void relax(int n, int level, char[] local, char[] best, IntList[] buckets) {
+        int cand = Math.max(level, local[n]);
+        if (cand < best[n]) {
+            best[n] = (char) cand;
+            bucket(buckets, cand).add(n);
+        }
+    }
+
+    private static IntList bucket(IntList[] buckets, int level) {
+        IntList b = buckets[level];
+        if (b == null)
+            b = buckets[level] = new IntList();
+        return b;
+    }
+
+    private record Key(BufferedImage image, Rectangle roi, int[] xs, int[] ys, int ref) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.image == image && k.roi.equals(roi) && k.ref == ref
+                    && Arrays.equals(k.xs, xs) && Arrays.equals(k.ys, ys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(image), roi, ref, Arrays.hashCode(xs), Arrays.hashCode(ys));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package app;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Temp file for byte blocks that should not occupy the heap, e.g. history
+ * entries far from the current version. Each {@link #put} maps a region of the
+ * file and writes the blocks into it; {@link #get} maps the region read-only
+ * and copies them back out, so the data lives in the page cache and on disk in
+ * between.
+ *
+ * Released regions go to a free list (adjacent ones merged) from which put()
+ * takes the first extent large enough before growing the file, so the file
+ * stays about as large as the most bytes live at once. Free space at the end is
+ * cut off the file where the platform allows it (not while mappings of it are
+ * alive on Windows); it is reused either way. The file is deleted on close.
+ * Thread-safe.
+ */
+final class SpillStore implements AutoCloseable {
+
+    /** Where put() wrote a set of blocks; null blocks take no space. */
+    record Region(long offset, int[] lengths) {
+        long size() {
+            long n = 0;
+            for (int len : lengths)
+                n += Math.max(len, 0);
+            return n;
+        }
+    }
+
+    private final FileChannel channel;
+    private final TreeMap<Long, Long> free = new TreeMap<>(); // offset -> length, none adjacent
+    private long end; // bytes in use by regions or free extents
+
+    SpillStore() throws IOException {
+        Path file = Files.createTempFile("imageeditor-history", ".bin");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /** Writes {@code blocks} (elements may be null) to free space, or else to the end of the file. */
+    synchronized Region put(byte[][] blocks) throws IOException {
+        int[] lengths = new int[blocks.length];
+        long size = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            lengths[i] = blocks[i] == null ? -1 : blocks[i].length;
+            size += Math.max(lengths[i], 0);
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Block set too large to map: " + size + " bytes");
+        long offset = size > 0 ? allocate(size) : end;
+        try {
+            if (size > 0) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+                for (byte[] b : blocks) {
+                    if (b != null)
+                        buf.put(b);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            free(offset, size);
+            throw e;
+        }
+        return new Region(offset, lengths);
+    }
+
+    /** The blocks of {@code r}, which stays stored until released. */
+    synchronized byte[][] get(Region r) throws IOException {
+        byte[][] blocks = new byte[r.lengths().length][];
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, r.offset(), r.size());
+        for (int i = 0; i < blocks.length; i++) {
+            if (r.lengths()[i] >= 0) {
+                blocks[i] = new byte[r.lengths()[i]];
+                buf.get(blocks[i]);
+            }
+        }
+        return blocks;
+    }
+
+    /** Gives up {@code r}; its bytes are reused by later puts. */
+    synchronized void release(Region r) {
+        free(r.offset(), r.size());
+    }
+
+    /** Bytes of the file in use, by live regions or by free space between them. */
+    synchronized long fileBytes() {
+        return end;
+    }
+
+    /** Bytes of the file free for reuse. */
+    synchronized long freeBytes() {
+        long n = 0;
+        for (long len : free.values())
+            n += len;
+        return n;
+    }
+
+    // First fit among the free extents, else the end of the file.
+    private long allocate(long size) {
+        for (Map.Entry<Long, Long> f : free.entrySet()) {
+            if (f.getValue() >= size) {
+                long offset = f.getKey();
+                free.remove(offset);
+                if (f.getValue() > size)
+                    free.put(offset + size, f.getValue() - size);
+                return offset;
+            }
+        }
+        long offset = end;
+        end += size;
+        return offset;
+    }
+
+    private void free(long offset, long size) {
+        if (size == 0)
+            return;
+        Map.Entry<Long, Long> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            size += before.getValue();
+        }
+        Long after = free.get(offset + size);
+        if (after != null) {
+            free.remove(offset + size);
+            size += after;
+        }
+        if (offset + size < end) {
+            free.put(offset, size);
+            return;
+        }
+        end = offset;
+        try {
+            channel.truncate(end);
+        } catch (IOException e) {
+            // e.g. still mapped on Windows; the file is simply longer than end
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
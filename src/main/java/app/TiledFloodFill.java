@@ -0,0 +1,143 @@
+package app;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parallel variant of FloodFill for very large images, by tiled wavefront
+ * propagation.
+ *
+ * The ROI is cut into TILE x TILE tiles whose columns start at multiples of 64,
+ * so no two tiles ever share a BitMask word. Each tile has a queue of incoming
+ * spans; a tile with pending spans is scheduled as one fork-join task, which
+ * runs the ordinary span fill confined to the tile and hands every span that
+ * reaches a tile edge to the neighbouring tile's queue (scheduling that tile if
+ * it is idle). The fill is done when no tile has work left.
+ *
+ * A tile is processed by at most one task at a time, and a pixel is only marked
+ * when it is connected to a seed through accepted pixels, so the final mask is
+ * exactly the sequential FloodFill's, whatever the scheduling order.
+ */
+final class TiledFloodFill {
+
+    private static final int TILE = 512; // multiple of 64
+
+    private final int[] px;
+    private final int w;
+    private final Rectangle roi;
+    private final int ref, tol;
+    private final BitMask mask;
+    private final Thread owner;
+    private final int tileX0, tileY0, cols; // tile (c, r) covers [tileX0 + c*TILE, ...) x [tileY0 + r*TILE, ...)
+    private final Tile[] tiles;
+
+    private TiledFloodFill(BufferedImage img, Rectangle roi, int ref, int tol, BitMask mask) {
+        this.px = Rasters.argbPixels(img);
+        this.w = img.getWidth();
+        this.roi = roi;
+        this.ref = ref;
+        this.tol = tol;
+        this.mask = mask;
+        this.owner = Thread.currentThread();
+        tileX0 = roi.x / TILE * TILE;
+        tileY0 = roi.y;
+        cols = (roi.x + roi.width - tileX0 + TILE - 1) / TILE;
+        int rows = (roi.height + TILE - 1) / TILE;
+        tiles = new Tile[cols * rows];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                Rectangle cell = new Rectangle(tileX0 + c * TILE, tileY0 + r * TILE, TILE, TILE);
+                tiles[r * cols + c] = new Tile(cell.intersection(roi));
+            }
+        }
+    }
+
+    /** Parallel {@link FloodFill#fillBackground}; same arguments, same resulting mask. */
+    static void fillBackground(BufferedImage img, Rectangle roi, int[] xs, int[] ys, Color bg, int tol,
+            BitMask mask, ForkJoinPool pool) {
+        new TiledFloodFill(img, roi, bg.getRGB(), tol, mask).run(xs, ys, pool);
+    }
+
+    /** Parallel {@link FloodFill#fillForeground}; same arguments, same resulting mask. */
+    static void fillForeground(BufferedImage img, Rectangle roi, int sx, int sy, int tol, BitMask mask,
+            ForkJoinPool pool) {
+        if (!roi.contains(sx, sy))
+            return;
+        new TiledFloodFill(img, roi, img.getRGB(sx, sy), tol, mask).run(new int[] { sx }, new int[] { sy }, pool);
+    }
+
+    private void run(int[] xs, int[] ys, ForkJoinPool pool) {
+        pool.invoke(new CountedCompleter<Void>() {
+            @Override
+            public void compute() {
+                for (int i = 0; i < xs.length; i++) {
+                    if (roi.contains(xs[i], ys[i]))
+                        enqueue(xs[i], xs[i], ys[i], this);
+                }
+                tryComplete();
+            }
+        });
+    }
+
+    // Queue span [lx, rx] x y (within one tile) and schedule the tile if idle.
+    private void enqueue(int lx, int rx, int y, CountedCompleter<?> from) {
+        Tile tile = tiles[(y - tileY0) / TILE * cols + (lx - tileX0) / TILE];
+        boolean schedule;
+        synchronized (tile) {
+            tile.pending.add(lx);
+            tile.pending.add(rx);
+            tile.pending.add(y);
+            schedule = !tile.scheduled;
+            tile.scheduled = true;
+        }
+        if (schedule) {
+            from.addToPendingCount(1);
+            new TileTask(from, tile).fork();
+        }
+    }
+
+    private static final class Tile {
+        final Rectangle bounds;
+        IntList pending = new IntList(); // (lx, rx, y) triples, guarded by this
+        boolean scheduled; // a TileTask owns the tile, guarded by this
+
+        Tile(Rectangle bounds) {
+            this.bounds = bounds;
+        }
+    }
+
+    @SuppressWarnings("serial") // fork-join tasks are never serialized
+    private final class TileTask extends CountedCompleter<Void> {
+        private final Tile tile;
+
+        TileTask(CountedCompleter<?> parent, Tile tile) {
+            super(parent);
+            this.tile = tile;
+        }
+
+        @Override
+        public void compute() {
+            FloodFill fill = new FloodFill(px, w, roi, tile.bounds, ref, tol, mask,
+                    (lx, rx, y) -> enqueue(lx, rx, y, this), owner);
+            while (true) {
+                Cancellation.check(owner);
+                IntList spans;
+                synchronized (tile) {
+                    if (tile.pending.size() == 0) {
+                        tile.scheduled = false;
+                        break;
+                    }
+                    spans = tile.pending;
+                    tile.pending = new IntList();
+                }
+                for (int i = 0; i < spans.size(); i += 3)
+                    fill.scanRow(spans.get(i), spans.get(i + 1), spans.get(i + 2));
+                fill.run();
+            }
+            tryComplete();
+        }
+    }
+}
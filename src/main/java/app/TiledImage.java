@@ -0,0 +1,302 @@
+package app;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Immutable image held as 256x256 tiles, so that versions of an image that
+ * differ only in places share everything else.
+ *
+ * A version starts as a wrapper around a BufferedImage (the backing image,
+ * never copied). Derived versions copy only the tile table, and tiles outside
+ * the change stay shared with the parent. A changed tile is held in one of two
+ * compact forms and produces its pixels only on demand, i.e. when the version
+ * is displayed or saved through {@link #toBufferedImage()}:
+ * <ul>
+ * <li>a recipe ({@link #withRegion}): the parent's pixels plus a painter, e.g. a
+ * crop's alpha from its (packed) mask, recomputed each time it is needed;</li>
+ * <li>packed pixels ({@link #diff}): the deflated tile, for edits with no
+ * cheaper description.</li>
+ * </ul>
+ * {@link #deltaBytes()} estimates what a version holds beyond its backing image;
+ * {@link #packTiles} and {@link #ofPacked} turn a version into plain bytes and
+ * back, e.g. to keep it on disk.
+ * Safe to read from any thread.
+ */
+final class TiledImage {
+
+    static final int TILE = 256;
+
+    private static final long TILE_OVERHEAD = 64; // object headers, bounds, table slot
+
+    /**
+     * Rewrites the pixels of one tile inside {@code area}. {@code tile} holds the
+     * tile's previous content, row-major with stride {@code bounds.width};
+     * {@code bounds} and {@code area} (which lies within it) are in image
+     * coordinates.
+     */
+    interface RegionPainter {
+        void paint(int[] tile, Rectangle bounds, Rectangle area);
+    }
+
+    private final int width, height, tilesX, tilesY;
+    private final BufferedImage backing; // pixels of every tile that has no entry in tiles
+    private final Tile[] tiles;          // row-major, null = the backing image's pixels
+    private final long retainedBytes;    // held by the recipes' painters
+
+    private TiledImage(BufferedImage backing, Tile[] tiles, long retainedBytes) {
+        this.width = backing.getWidth();
+        this.height = backing.getHeight();
+        this.tilesX = (width + TILE - 1) / TILE;
+        this.tilesY = (height + TILE - 1) / TILE;
+        this.backing = backing;
+        this.tiles = tiles;
+        this.retainedBytes = retainedBytes;
+    }
+
+    /** A version consisting of {@code img}'s pixels; img must not be modified afterwards. */
+    static TiledImage wrap(BufferedImage img) {
+        int tiles = ((img.getWidth() + TILE - 1) / TILE) * ((img.getHeight() + TILE - 1) / TILE);
+        return new TiledImage(Rasters.toIntArgb(img), new Tile[tiles], 0);
+    }
+
+    /**
+     * Version of {@code img} (same size as {@code base}) stored as {@code base}
+     * plus the deflated tiles in which the two differ.
+     */
+    static TiledImage diff(TiledImage base, BufferedImage img) {
+        if (img.getWidth() != base.width || img.getHeight() != base.height)
+            throw new IllegalArgumentException("Image size differs from the base version");
+        int[] px = Rasters.argbPixels(img);
+        Tile[] next = base.tiles.clone();
+        for (int ty = 0; ty < base.tilesY; ty++) {
+            for (int tx = 0; tx < base.tilesX; tx++) {
+                Cancellation.check();
+                Rectangle b = base.tileBounds(tx, ty);
+                int[] mine = copy(px, base.width, b);
+                if (!Arrays.equals(mine, base.tilePixels(tx, ty)))
+                    next[ty * base.tilesX + tx] = Tile.packed(mine);
+            }
+        }
+        return new TiledImage(base.backing, next, base.retainedBytes);
+    }
+
+    /**
+     * Version over {@code base} whose tile i is {@code tiles[i]} as produced by
+     * {@link #packTiles}, or base's pixels where that is null.
+     */
+    static TiledImage ofPacked(BufferedImage base, byte[][] tiles) {
+        TiledImage empty = wrap(base);
+        if (tiles.length != empty.tiles.length)
+            throw new IllegalArgumentException("Expected " + empty.tiles.length + " tiles, got " + tiles.length);
+        Tile[] next = new Tile[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                Rectangle b = empty.tileBounds(i % empty.tilesX, i / empty.tilesX);
+                next[i] = Tile.packed(tiles[i], b.width * b.height);
+            }
+        }
+        return new TiledImage(empty.backing, next, 0);
+    }
+
+    /**
+     * This version's pixels as deflated tiles, row-major, with null for every tile
+     * equal to the same tile of {@code base} (an image of this size); the inverse
+     * of {@link #ofPacked}. Computes recipe tiles; packed ones are reused as is.
+     */
+    byte[][] packTiles(BufferedImage base) {
+        if (base.getWidth() != width || base.getHeight() != height)
+            throw new IllegalArgumentException("Base image size differs from the version");
+        int[] basePx = Rasters.argbPixels(base);
+        byte[][] out = new byte[tiles.length][];
+        for (int i = 0; i < tiles.length; i++) {
+            Tile t = tiles[i];
+            if (t == null && backing == base)
+                continue;
+            if (t != null && t.packed != null) {
+                out[i] = t.packed;
+                continue;
+            }
+            Rectangle b = tileBounds(i % tilesX, i / tilesX);
+            int[] px = t != null ? t.pixels() : copy(Rasters.argbPixels(backing), width, b);
+            if (!Arrays.equals(px, copy(basePx, width, b)))
+                out[i] = Packing.packInts(px);
+        }
+        return out;
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    /** The image this version was derived from, which supplies all tiles never replaced. */
+    BufferedImage backing() {
+        return backing;
+    }
+
+    /** Number of tiles that differ from the backing image. */
+    int replacedTiles() {
+        return (int) Arrays.stream(tiles).filter(t -> t != null).count();
+    }
+
+    /**
+     * Bounds of the replaced tiles, outside which this version equals its backing
+     * image; null if it replaced none. Computes no pixels.
+     */
+    Rectangle replacedBounds() {
+        Rectangle bounds = null;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                Rectangle b = tileBounds(i % tilesX, i / tilesX);
+                bounds = bounds == null ? b : bounds.union(b);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Estimated heap held by this version beyond its backing image: its replaced
+     * tiles and what their recipes keep alive. Tiles shared with other versions
+     * are counted in each.
+     */
+    long deltaBytes() {
+        long bytes = retainedBytes;
+        for (Tile t : tiles) {
+            if (t != null)
+                bytes += TILE_OVERHEAD + t.packedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * New version in which {@code painter} has rewritten {@code region} (clipped
+     * to the image); the painting happens per tile, on demand. The painter's own
+     * inputs take {@code painterBytes} of heap.
+     */
+    TiledImage withRegion(Rectangle region, RegionPainter painter, long painterBytes) {
+        Rectangle r = region.intersection(new Rectangle(0, 0, width, height));
+        Tile[] next = tiles.clone();
+        if (r.isEmpty())
+            return new TiledImage(backing, next, retainedBytes);
+        for (int ty = r.y / TILE; ty <= (r.y + r.height - 1) / TILE; ty++) {
+            for (int tx = r.x / TILE; tx <= (r.x + r.width - 1) / TILE; tx++) {
+                Rectangle bounds = tileBounds(tx, ty);
+                Rectangle area = bounds.intersection(r);
+                Tile parent = tiles[ty * tilesX + tx];
+                next[ty * tilesX + tx] = Tile.recipe(into -> {
+                    if (parent != null)
+                        parent.pixels(into);
+                    else
+                        copy(Rasters.argbPixels(backing), width, bounds, into);
+                    painter.paint(into, bounds, area);
+                }, bounds.width * bounds.height);
+            }
+        }
+        return new TiledImage(backing, next, retainedBytes + painterBytes);
+    }
+
+    /**
+     * This version as one TYPE_INT_ARGB image, computing the replaced tiles. Each
+     * tile is written once, from the backing image or from its own pixels. A
+     * version that replaced no tiles returns its backing image itself.
+     */
+    BufferedImage toBufferedImage() {
+        if (replacedTiles() == 0)
+            return backing;
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] dst = Rasters.argbPixels(out);
+        int[] src = Rasters.argbPixels(backing);
+        int[] px = new int[TILE * TILE]; // one tile at a time, stride = tile width
+        for (int ty = 0; ty < tilesY; ty++) {
+            Cancellation.check();
+            for (int tx = 0; tx < tilesX; tx++) {
+                Tile t = tiles[ty * tilesX + tx];
+                Rectangle b = tileBounds(tx, ty);
+                if (t == null) {
+                    for (int y = b.y; y < b.y + b.height; y++)
+                        System.arraycopy(src, y * width + b.x, dst, y * width + b.x, b.width);
+                    continue;
+                }
+                t.pixels(px);
+                for (int y = 0; y < b.height; y++)
+                    System.arraycopy(px, y * b.width, dst, (b.y + y) * width + b.x, b.width);
+            }
+        }
+        return out;
+    }
+
+    // Pixels of tile (tx, ty), freshly allocated.
+    private int[] tilePixels(int tx, int ty) {
+        Tile t = tiles[ty * tilesX + tx];
+        return t != null ? t.pixels() : copy(Rasters.argbPixels(backing), width, tileBounds(tx, ty));
+    }
+
+    private Rectangle tileBounds(int tx, int ty) {
+        int x = tx * TILE, y = ty * TILE;
+        return new Rectangle(x, y, Math.min(TILE, width - x), Math.min(TILE, height - y));
+    }
+
+    private static int[] copy(int[] src, int stride, Rectangle b) {
+        return copy(src, stride, b, new int[b.width * b.height]);
+    }
+
+    private static int[] copy(int[] src, int stride, Rectangle b, int[] into) {
+        for (int y = 0; y < b.height; y++)
+            System.arraycopy(src, (b.y + y) * stride + b.x, into, y * b.width, b.width);
+        return into;
+    }
+
+    // One replaced tile: a recipe or deflated pixels, producing its pixels anew
+    // on every call.
+    private static final class Tile {
+
+        interface Recipe {
+            void compute(int[] into);
+        }
+
+        private final Recipe recipe;
+        private final byte[] packed;
+        private final int length; // pixels in the tile
+
+        private Tile(Recipe recipe, byte[] packed, int length) {
+            this.recipe = recipe;
+            this.packed = packed;
+            this.length = length;
+        }
+
+        static Tile recipe(Recipe recipe, int length) {
+            return new Tile(recipe, null, length);
+        }
+
+        static Tile packed(int[] pixels) {
+            return packed(Packing.packInts(pixels), pixels.length);
+        }
+
+        static Tile packed(byte[] packed, int length) {
+            return new Tile(null, packed, length);
+        }
+
+        int[] pixels() {
+            int[] px = new int[length];
+            pixels(px);
+            return px;
+        }
+
+        // Writes the pixels to the start of `into`, row-major with the tile's width as stride.
+        void pixels(int[] into) {
+            if (recipe != null)
+                recipe.compute(into);
+            else
+                Packing.unpackInts(packed, into, length);
+        }
+
+        long packedBytes() {
+            return packed != null ? packed.length : 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Every input must get an output of its own, and never its own source file. */
+class BatchInputsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sameNameInTwoDirectoriesKeepsSourceExtension() throws IOException {
+        Path a = touch("a/x.jpg"), b = touch("b/x.jpg");
+        List<BatchInputs.Input> inputs = expand("-o", dir.resolve("out").toString(), a.getParent().toString(),
+                b.getParent().toString());
+        assertEquals(2, inputs.size(), "inputs");
+        assertEquals(dir.resolve("out/x.png"), inputs.get(0).output(), "first output");
+        assertEquals(dir.resolve("out/x.jpg.png"), inputs.get(1).output(), "second output");
+        assertNull(inputs.get(0).rejected(), "first rejected");
+        assertNull(inputs.get(1).rejected(), "second rejected");
+    }
+
+    @Test
+    void sameStemWithTwoExtensionsKeepsSourceExtension() throws IOException {
+        touch("a/y.jpg");
+        touch("a/y.png");
+        List<BatchInputs.Input> inputs = expand("-o", dir.resolve("out").toString(), dir.resolve("a").toString());
+        assertEquals(dir.resolve("out/y.png"), inputs.get(0).output(), "first output");
+        assertEquals(dir.resolve("out/y.png.png"), inputs.get(1).output(), "second output");
+    }
+
+    @Test
+    void thirdCollisionIsRejected() throws IOException {
+        Path a = touch("a/x.jpg"), b = touch("b/x.jpg"), c = touch("c/x.jpg");
+        List<BatchInputs.Input> inputs = expand("-o", dir.resolve("out").toString(), a.toString(), b.toString(),
+                c.toString());
+        assertEquals(3, inputs.size(), "inputs");
+        assertNull(inputs.get(1).rejected(), "second rejected");
+        assertNotNull(inputs.get(2).rejected(), "third rejected");
+    }
+
+    @Test
+    void outputOverSourceIsRejected() throws IOException {
+        Path src = touch("shots/z.png");
+        List<BatchInputs.Input> inputs = expand("-o", src.getParent().toString(), src.getParent().toString());
+        assertEquals(1, inputs.size(), "inputs");
+        assertNotNull(inputs.get(0).rejected(), "rejected");
+    }
+
+    @Test
+    void outputNeverReplacesAnotherSource() throws IOException {
+        Path jpg = touch("shots/w.jpg"), png = touch("shots/w.png");
+        List<BatchInputs.Input> inputs = expand("-o", jpg.getParent().toString(), jpg.getParent().toString());
+        assertEquals(jpg, inputs.get(0).source(), "first source");
+        assertEquals(dir.resolve("shots/w.jpg.png"), inputs.get(0).output(), "first output");
+        assertNull(inputs.get(0).rejected(), "first rejected");
+        assertEquals(png, inputs.get(1).source(), "second source");
+        assertNotNull(inputs.get(1).rejected(), "second rejected");
+    }
+
+    private Path touch(String name) throws IOException {
+        Path f = dir.resolve(name);
+        Files.createDirectories(f.getParent());
+        return Files.write(f, new byte[0]);
+    }
+
+    private static List<BatchInputs.Input> expand(String... args) throws IOException {
+        return BatchInputs.expand(BatchOptions.parse(args));
+    }
+}
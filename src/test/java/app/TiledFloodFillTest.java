@@ -0,0 +1,133 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * TiledFloodFill must produce exactly FloodFill's mask whatever the scheduling,
+ * so every case runs on a multi-threaded pool, several times over.
+ */
+class TiledFloodFillTest {
+
+    private static final int RUNS = 3;
+
+    @Test
+    void backgroundMatchesSequentialFill() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random rnd = new Random(42);
+            for (int i = 0; i < 12; i++) {
+                BufferedImage img = randomImage(rnd, 1300 + rnd.nextInt(400), 1100 + rnd.nextInt(300));
+                Rectangle roi = randomRoi(rnd, img);
+                int tol = 20 + rnd.nextInt(120);
+                int[][] seeds = FloodFill.cornerSeeds(roi);
+                Color bg = new Color(img.getRGB(roi.x, roi.y));
+
+                BitMask expected = new BitMask(img.getWidth(), img.getHeight());
+                FloodFill.fillBackground(img, roi, seeds[0], seeds[1], bg, tol, expected);
+                for (int run = 0; run < RUNS; run++) {
+                    BitMask actual = new BitMask(img.getWidth(), img.getHeight());
+                    TiledFloodFill.fillBackground(img, roi, seeds[0], seeds[1], bg, tol, actual, pool);
+                    assertSameMask(expected, actual, "background case " + i + ", run " + run);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void foregroundMatchesSequentialFill() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random rnd = new Random(7);
+            for (int i = 0; i < 12; i++) {
+                BufferedImage img = randomImage(rnd, 1300 + rnd.nextInt(400), 1100 + rnd.nextInt(300));
+                Rectangle roi = randomRoi(rnd, img);
+                int tol = 20 + rnd.nextInt(120);
+                int sx = roi.x + rnd.nextInt(roi.width), sy = roi.y + rnd.nextInt(roi.height);
+
+                BitMask expected = new BitMask(img.getWidth(), img.getHeight());
+                FloodFill.fillForeground(img, roi, sx, sy, tol, expected);
+                for (int run = 0; run < RUNS; run++) {
+                    BitMask actual = new BitMask(img.getWidth(), img.getHeight());
+                    TiledFloodFill.fillForeground(img, roi, sx, sy, tol, actual, pool);
+                    assertSameMask(expected, actual, "foreground case " + i + ", run " + run);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void seedOutsideRoiFillsNothing() {
+        BufferedImage img = randomImage(new Random(1), 600, 400);
+        Rectangle roi = new Rectangle(100, 100, 200, 100);
+        BitMask mask = new BitMask(600, 400);
+        TiledFloodFill.fillForeground(img, roi, 10, 10, 100, mask, ForkJoinPool.commonPool());
+        assertEquals(0, mask.popCount(), "pixels filled");
+    }
+
+    // Noisy background with overlapping shapes and thin lines, so fills wind
+    // through many tiles and cross tile edges in both directions.
+    private static BufferedImage randomImage(Random rnd, int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(230, 230, 225));
+        g.fillRect(0, 0, w, h);
+        for (int i = 0; i < 30; i++) {
+            g.setColor(new Color(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)));
+            int x = rnd.nextInt(w), y = rnd.nextInt(h), sw = 20 + rnd.nextInt(w / 5), sh = 20 + rnd.nextInt(h / 5);
+            if (rnd.nextBoolean())
+                g.fillOval(x - sw / 2, y - sh / 2, sw, sh);
+            else
+                g.fillRect(x - sw / 2, y - sh / 2, sw, sh);
+        }
+        g.setStroke(new BasicStroke(1));
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)));
+            g.drawLine(rnd.nextInt(w), rnd.nextInt(h), rnd.nextInt(w), rnd.nextInt(h));
+        }
+        g.dispose();
+        int[] px = Rasters.argbPixels(img);
+        for (int i = 0; i < px.length; i++) {
+            int n = rnd.nextInt(9) - 4;
+            int r = clamp(((px[i] >> 16) & 0xff) + n), gr = clamp(((px[i] >> 8) & 0xff) + n);
+            px[i] = 0xff000000 | r << 16 | gr << 8 | clamp((px[i] & 0xff) + n);
+        }
+        return img;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    private static Rectangle randomRoi(Random rnd, BufferedImage img) {
+        if (rnd.nextInt(4) == 0)
+            return new Rectangle(0, 0, img.getWidth(), img.getHeight());
+        int x = rnd.nextInt(img.getWidth() / 3), y = rnd.nextInt(img.getHeight() / 3);
+        int w = 1 + rnd.nextInt(img.getWidth() - x), h = 1 + rnd.nextInt(img.getHeight() - y);
+        return new Rectangle(x, y, w, h);
+    }
+
+    private static void assertSameMask(BitMask expected, BitMask actual, String label) {
+        assertEquals(expected.popCount(), actual.popCount(), label + ": pixel count");
+        for (int y = 0; y < expected.height(); y++) {
+            for (int x = 0; x < expected.width(); x++) {
+                if (expected.get(x, y) != actual.get(x, y))
+                    fail(label + ": masks differ at " + x + "," + y);
+            }
+        }
+    }
+}